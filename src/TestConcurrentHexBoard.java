@@ -0,0 +1,73 @@
+import edu.uwm.cs351.ConcurrentHexBoard;
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestConcurrentHexBoard extends TestHexBoardContract<ConcurrentHexBoard> {
+
+	@Override
+	protected ConcurrentHexBoard newBoard() {
+		return new ConcurrentHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate l) {
+		return hb.terrainAt(l);
+	}
+	
+	@Override
+	protected Terrain terrainAt(int a, int b) {
+		return hb.terrainAt(a,b);
+	}
+	
+	@Override
+	protected void forEachTile(HexBoard.TileVisitor v) {
+		hb.forEachTile(v);
+	}
+	
+	@Override
+	protected void initCollections() {
+		super.initCollections();
+		failFast = false;
+	}
+
+	
+	public void testJ() throws InterruptedException {
+		Thread[] workers = new Thread[4];
+		for (int w=0; w < workers.length; ++w) {
+			final int b = w;
+			workers[w] = new Thread(() -> {
+				for (int a=0; a < 1000; ++a) {
+					hb.add(new HexTile(Terrain.values()[a%7],h(a,b)));
+					if (a % 3 == 0) hb.remove(new HexTile(Terrain.values()[a%7],h(a,b)));
+				}
+			});
+			workers[w].start();
+		}
+		for (Thread t : workers) {
+			t.join();
+		}
+		assertEquals(4*666,hb.size());
+		assertEquals(Terrain.values()[1],hb.terrainAt(1,3));
+		assertNull(hb.terrainAt(3,1));
+	}
+	
+	public void testJ2() {
+		for (int i=1; i < 5; ++i) {
+			hb.add(e[i]);
+		}
+		it = hb.iterator();
+		assertEquals(e[1],it.next());
+		hb.remove(e[3]);
+		hb.add(e[5]);
+		hb.add(new HexTile(Terrain.CITY,e[1].getLocation()));
+		it.remove();
+		assertEquals(Terrain.CITY,hb.terrainAt(e[1].getLocation()));
+		assertEquals(e[2],it.next());
+		assertEquals(e[4],it.next());
+		assertEquals(e[5],it.next());
+		assertFalse(it.hasNext());
+	}
+}
@@ -0,0 +1,40 @@
+import edu.uwm.cs351.DenseHexBoard;
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestDenseHexBoard extends TestHexBoardContract<DenseHexBoard> {
+
+	@Override
+	protected DenseHexBoard newBoard() {
+		return new DenseHexBoard(-20,-20,60,50);
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate l) {
+		return hb.terrainAt(l);
+	}
+	
+	@Override
+	protected Terrain terrainAt(int a, int b) {
+		return hb.terrainAt(a,b);
+	}
+	
+	@Override
+	protected void forEachTile(HexBoard.TileVisitor v) {
+		hb.forEachTile(v);
+	}
+
+	
+	public void testJ() {
+		assertException(IllegalArgumentException.class, () -> hb.add(new HexTile(Terrain.LAND,h(40,0))));
+		assertException(IllegalArgumentException.class, () -> hb.add(new HexTile(Terrain.LAND,h(0,-21))));
+		assertException(IllegalArgumentException.class, () -> new DenseHexBoard(0,0,0,10));
+		assertNull(hb.terrainAt(1000,1000));
+		assertTrue(hb.add(new HexTile(Terrain.LAND,h(39,29))));
+		assertTrue(hb.add(new HexTile(Terrain.CITY,h(-20,-20))));
+		testcol(hb,"hb",new HexTile(Terrain.CITY,h(-20,-20)),new HexTile(Terrain.LAND,h(39,29)));
+	}
+}
@@ -1,16 +1,33 @@
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Function;
 import java.util.function.IntFunction;
 import java.util.function.Supplier;
 
 import junit.framework.TestCase;
 import edu.uwm.cs.util.BitUtil;
+import edu.uwm.cs351.ConcurrentHexBoard;
+import edu.uwm.cs351.DenseHexBoard;
+import edu.uwm.cs351.HashHexBoard;
 import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexBoardParser;
 import edu.uwm.cs351.HexCoordinate;
 import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.MappedHexBoard;
+import edu.uwm.cs351.ReadMostlyHexBoard;
+import edu.uwm.cs351.RunLengthHexBoard;
 import edu.uwm.cs351.Terrain;
 
 
@@ -89,6 +106,34 @@ public class TestEfficiency extends TestCase {
 		hb.clear();
 	}
 	
+	protected HexTile makeRowMajorHexTile(int i) {
+		return new HexTile(terrains[i % terrains.length],new HexCoordinate(i % MAX_A, i / MAX_A));
+	}
+	
+	public void testHBSorted() {
+		testLong(hb,(i) -> makeRowMajorHexTile(i),true);
+		hb.clear();
+	}
+	
+	public void testHBReverseSorted() {
+		testContains(hb,(i) -> makeRowMajorHexTile(MAX_LENGTH-i));
+		hb.clear();
+	}
+	
+
+	public void testHBForEach() {
+		HexBoard board = (HexBoard)hb;
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			board.add(makeRowMajorHexTile(i));
+		}
+		int[] count = new int[1];
+		for (int j=0; j < SAMPLE; ++j) {
+			board.forEachTile((a,b,t) -> { if (t == Terrain.CITY) ++count[0]; });
+		}
+		assertEquals(SAMPLE*(MAX_LENGTH/terrains.length),count[0]);
+		hb.clear();
+	}
+	
 
 	protected <T> void testStochastic(Supplier<Collection<T>> makeCol, IntFunction<T> maker) {
 		List<Collection<T>> ss = new ArrayList<>();
@@ -115,6 +160,201 @@ public class TestEfficiency extends TestCase {
 	}
 	
 	
+	public void testHBCopy() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+		}
+		for (int j=0; j < 10; ++j) {
+			HexBoard copy = new HexBoard(hb);
+			assertFalse(copy.addAll(hb));
+			assertEquals(hb.size(),copy.size());
+		}
+		hb.clear();
+	}
+	
+	
+	public void testHBWithin() {
+		HexBoard board = (HexBoard)hb;
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			board.add(makeRowMajorHexTile(i));
+		}
+		int[] count = new int[1];
+		for (int i=0; i < MAX_LENGTH; i += 10) {
+			count[0] = 0;
+			HexCoordinate center = new HexCoordinate(r.nextInt(MAX_A),r.nextInt(MAX_LENGTH/MAX_A));
+			board.forEachTileWithin(center,2,(a,b,t) -> ++count[0]);
+			assertTrue(count[0] <= 19);
+		}
+		hb.clear();
+	}
+	
+	public void testHBViewport() {
+		HexBoard board = (HexBoard)hb;
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			board.add(makeRowMajorHexTile(i));
+		}
+		int[] count = new int[1];
+		Rectangle view = new Rectangle(0,0,800,600);
+		for (int i=0; i < MAX_LENGTH; i += 100) {
+			view.setLocation(i % 1000, i / 100); // scrolling down
+			board.forEachTileIn(view,HexTile.WIDTH,(a,b,t) -> ++count[0]);
+		}
+		assertTrue(count[0] > 0);
+		hb.clear();
+	}
+	
+	public void testHBBinary() throws IOException {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeRowMajorHexTile(i));
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((HexBoard)hb).writeTo(out);
+		assertTrue(out.size() < 3 * MAX_LENGTH);
+		for (int j=0; j < 10; ++j) {
+			HexBoard copy = new HexBoard();
+			copy.readFrom(new ByteArrayInputStream(out.toByteArray()));
+			assertEquals(MAX_LENGTH,copy.size());
+		}
+		hb.clear();
+	}
+	
+	public void testHBParse() {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			sb.append(makeRowMajorHexTile(i)).append('\n');
+		}
+		for (int j=0; j < 10; ++j) {
+			HexBoard copy = new HexBoard();
+			assertEquals(MAX_LENGTH,HexBoardParser.parseInto(CharBuffer.wrap(sb),copy));
+			assertEquals(MAX_LENGTH,copy.size());
+		}
+	}
+
+	public void testHBSnapshot() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+		}
+		HexBoard board = (HexBoard)hb;
+		List<HexBoard> states = new ArrayList<>();
+		for (int j=0; j < MAX_LENGTH/10; ++j) {
+			HexBoard fork = new HexBoard(board.snapshot());
+			HexTile t = makeHexTile(r.nextInt(MAX_LENGTH));
+			assertTrue(fork.remove(t));
+			assertTrue(board.contains(t));
+			if (j % 1000 == 0) states.add(fork.snapshot());
+		}
+		for (HexBoard s : states) {
+			assertEquals(MAX_LENGTH-1,s.size());
+		}
+		hb.clear();
+	}
+
+	public void testHBJournal() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+		}
+		HexBoard board = (HexBoard)hb;
+		board.setJournaling(true);
+		for (int j=0; j < MAX_LENGTH/10; ++j) {
+			int cp = board.checkpoint();
+			HexTile t = makeHexTile(j * 7 % MAX_LENGTH);
+			assertTrue(board.remove(t));
+			assertTrue(board.add(new HexTile(Terrain.CITY,new HexCoordinate(-j-1,0))));
+			assertEquals(2,board.rollback(cp));
+			assertTrue(board.contains(t));
+			if (j % 2 == 0) assertTrue(board.redo());
+		}
+		assertEquals(MAX_LENGTH,board.size());
+		hb.clear();
+	}
+
+	public void testHBParallel() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+		}
+		long sum = hb.stream().mapToLong((t) -> t.getLocation().a()).sum();
+		for (int j=0; j < 10; ++j) {
+			assertEquals(MAX_LENGTH,hb.parallelStream().filter((t) -> t.getTerrain() != null).count());
+			assertEquals(sum,hb.parallelStream().mapToLong((t) -> t.getLocation().a()).sum());
+		}
+		hb.clear();
+	}
+
+	public void testHBHistogram() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+		}
+		for (int j=0; j < 10; ++j) {
+			long total = 0;
+			for (long n : ((HexBoard)hb).terrainCounts().values()) total += n;
+			assertEquals(MAX_LENGTH,total);
+		}
+		hb.clear();
+	}
+
+	public void testHBCounts() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+		}
+		HexBoard b = (HexBoard)hb;
+		for (int j=0; j < MAX_LENGTH; ++j) {
+			int b1 = r.nextInt(MAX_LENGTH), b2 = r.nextInt(MAX_LENGTH);
+			assertTrue(b.countInRows(Terrain.FOREST,b1,b2) <= MAX_LENGTH);
+			HexTile t = makeHexTile(r.nextInt(MAX_LENGTH));
+			assertTrue(b.count(t.getTerrain(),t.getLocation(),null) > 0);
+		}
+		hb.clear();
+	}
+
+	public void testHBRandomAccess() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+		}
+		HexBoard b = (HexBoard)hb;
+		for (int j=0; j < MAX_LENGTH; ++j) {
+			int i = r.nextInt(MAX_LENGTH);
+			assertEquals(i,b.rank(b.tileAt(i).getLocation()));
+			assertTrue(b.contains(b.randomTile(r)));
+		}
+		Iterator<HexTile> it = b.iterator(MAX_LENGTH/2);
+		for (int j=0; j < SAMPLE; ++j) {
+			assertEquals(b.tileAt(MAX_LENGTH/2+j),it.next());
+		}
+		hb.clear();
+	}
+
+	public void testHBNeighbors() {
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeRowMajorHexTile(i));
+		}
+		HexBoard b = (HexBoard)hb;
+		int[] count = new int[1];
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			HexCoordinate h = makeRowMajorHexTile(i).getLocation();
+			b.forEachNeighbor(h.a(),h.b(),(x,y,t) -> ++count[0]);
+		}
+		assertTrue(count[0] > 5*MAX_LENGTH);
+		hb.clear();
+	}
+
+	public void testHBSetOperations() {
+		HexBoard evens = new HexBoard();
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			hb.add(makeHexTile(i));
+			if ((i & 1) == 0) evens.add(makeHexTile(i));
+		}
+		for (int j=0; j < 3; ++j) {
+			HexBoard copy = new HexBoard(hb);
+			assertTrue(copy.containsAll(evens));
+			assertTrue(copy.removeAll(evens));
+			assertFalse(copy.retainAll(hb));
+			assertTrue(copy.retainAll(evens));
+			assertTrue(copy.isEmpty());
+		}
+		hb.clear();
+	}
+	
+	
 	protected <T> void testMiddle(Collection<T> col, IntFunction<T> maker) {
 		// this would be too slow with dynamic arrays
 		for (int i=0; i < MAX_LENGTH; ++i) {
@@ -134,12 +374,15 @@ public class TestEfficiency extends TestCase {
 		assertEquals(MAX_LENGTH-removed,col.size());
 	}
 	
-	/* this testuses removal.
 	public void testHBMiddle() {
 		testMiddle(hb,(i) -> makeHexTile(i));
 		hb.clear();
 	}
-	*/
+	
+	public void testHBSortedMiddle() {
+		testMiddle(hb,(i) -> makeRowMajorHexTile(i));
+		hb.clear();
+	}
 	
 	
 	protected <T> void testContains(Collection<T> col, IntFunction<T> maker) {
@@ -159,6 +402,170 @@ public class TestEfficiency extends TestCase {
 		hb.clear();
 	}
 	
+	public void testHashContains() {
+		testContains(new HashHexBoard(),(i)->makeRowMajorHexTile(i));
+	}
+	
+	public void testHashMiddle() {
+		testMiddle(new HashHexBoard(),(i)->makeHexTile(i));
+	}
+	
+	public void testDenseContains() {
+		testContains(new DenseHexBoard(0,0,MAX_A,MAX_LENGTH/MAX_A+1),(i)->makeRowMajorHexTile(i));
+	}
+	
+	public void testDenseHuge() {
+		DenseHexBoard board = new DenseHexBoard(0,0,1<<11,1<<11); // 4M tiles
+		for (int b=0; b < 1<<11; ++b) {
+			for (int a=0; a < 1<<11; ++a) {
+				board.add(new HexTile(terrains[(a^b)%terrains.length],new HexCoordinate(a,b)));
+			}
+		}
+		assertEquals(1<<22,board.size());
+		int[] count = new int[1];
+		board.forEachTile((a,b,t) -> { if (t == board.terrainAt(a,b)) ++count[0]; });
+		assertEquals(1<<22,count[0]);
+	}
+	
+	public void testRunLengthHuge() {
+		RunLengthHexBoard board = new RunLengthHexBoard();
+		int side = 1 << 20; // 1T tiles in rows of ocean with a few islands
+		for (int b=0; b < side; ++b) {
+			board.addRun(0,b,side,Terrain.WATER);
+			if (b % 64 == 0) board.add(new HexTile(Terrain.LAND,new HexCoordinate(b,b)));
+		}
+		assertEquals((long)side*side,board.longSize());
+		assertTrue(board.runCount() < 2*side);
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			int a = r.nextInt(side), b = r.nextInt(side) & ~63;
+			assertEquals(a == b ? Terrain.LAND : Terrain.WATER,board.terrainAt(a,b));
+		}
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			board.add(makeRowMajorHexTile(i));
+		}
+		assertEquals((long)side*side,board.longSize());
+	}
+
+	/**
+	 * Run a mix of mostly lookups and some changes on a board from several threads.
+	 * @param board board to use, already filled with tiles
+	 * @param terrainAt how to look up a terrain
+	 * @param threads number of threads
+	 * @param ops number of operations for each thread
+	 * @return time taken in milliseconds
+	 */
+	private long runWorkers(Collection<HexTile> board, Function<HexCoordinate,Terrain> terrainAt, int threads, int ops) throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		long start = System.currentTimeMillis();
+		for (int w=0; w < threads; ++w) {
+			final long seed = r.nextLong();
+			workers[w] = new Thread(() -> {
+				Random rand = new Random(seed);
+				for (int i=0; i < ops; ++i) {
+					HexTile t = makeHexTile(rand.nextInt(MAX_LENGTH));
+					int k = rand.nextInt(10);
+					if (k == 0) board.remove(t);
+					else if (k == 1) board.add(t);
+					else terrainAt.apply(t.getLocation());
+				}
+			});
+			workers[w].start();
+		}
+		for (Thread t : workers) {
+			t.join();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Slack allowed (as a factor) when comparing timings of the
+	 * concurrent boards with a locked hex board, for timing noise.
+	 */
+	private static final double TIMING_SLACK = 1.5;
+
+	/**
+	 * Run workers several times and return the fastest time, 
+	 * to reduce the effect of compilation and garbage collection.
+	 * @see #runWorkers(Collection, Function, int, int)
+	 */
+	private long fastest(Collection<HexTile> board, Function<HexCoordinate,Terrain> terrainAt, int threads, int ops) throws InterruptedException {
+		long best = Long.MAX_VALUE;
+		for (int j=0; j < 3; ++j) {
+			best = Math.min(best,runWorkers(board,terrainAt,threads,ops));
+		}
+		return best;
+	}
+
+	public void testConcurrentScaling() throws InterruptedException {
+		ConcurrentHexBoard board = new ConcurrentHexBoard();
+		HexBoard plain = new HexBoard();
+		Collection<HexTile> all = new HashSet<>();
+		for (int i=0; i < MAX_LENGTH; ++i) {
+			board.add(makeHexTile(i));
+			plain.add(makeHexTile(i));
+			all.add(makeHexTile(i));
+		}
+		Collection<HexTile> locked = Collections.synchronizedCollection(plain);
+		ReadMostlyHexBoard readMostly = new ReadMostlyHexBoard(plain);
+		int cores = Runtime.getRuntime().availableProcessors();
+		int maxThreads = Math.max(2,cores);
+		long concurrent = 0, withLock = 0, snapshots = 0;
+		long concurrent1 = 0, withLock1 = 0, snapshots1 = 0;
+		// the total work is the same for any number of threads
+		for (int n=1; n <= maxThreads; n *= 2) {
+			concurrent = Math.max(10,fastest(board,(l) -> board.terrainAt(l),n,MAX_LENGTH/10/n));
+			withLock = Math.max(10,fastest(locked,(l) -> { synchronized (locked) { return plain.terrainAt(l); } },n,MAX_LENGTH/10/n));
+			snapshots = Math.max(10,fastest(readMostly,(l) -> readMostly.terrainAt(l),n,MAX_LENGTH/10/n));
+			System.out.println("testConcurrentScaling: " + n + " threads: " + concurrent + " ms concurrent, " + 
+					withLock + " ms locked, " + snapshots + " ms read-mostly");
+			if (n == 1) {
+				concurrent1 = concurrent;
+				withLock1 = withLock;
+				snapshots1 = snapshots;
+				assertTrue("one thread: concurrent " + concurrent + " ms, locked " + withLock + " ms",
+						concurrent <= TIMING_SLACK * withLock);
+			}
+		}
+		// more threads must help the concurrent boards at least as much as the locked board
+		double lockedScaling = (double)withLock / withLock1;
+		assertTrue("concurrent went from " + concurrent1 + " to " + concurrent + " ms, locked from " + withLock1 + " to " + withLock + " ms",
+				(double)concurrent / concurrent1 <= TIMING_SLACK * lockedScaling);
+		assertTrue("read-mostly went from " + snapshots1 + " to " + snapshots + " ms, locked from " + withLock1 + " to " + withLock + " ms",
+				(double)snapshots / snapshots1 <= TIMING_SLACK * lockedScaling);
+		if (cores > 1) {
+			assertTrue("concurrent went from " + concurrent1 + " to " + concurrent + " ms with " + maxThreads + " threads",
+					concurrent <= concurrent1);
+		}
+		// every tile left is one that was there or added, and the sizes add up
+		assertTrue(all.containsAll(board));
+		assertTrue(all.containsAll(plain));
+		assertTrue(all.containsAll(readMostly));
+		assertEquals(board.size(),board.stream().count());
+		assertEquals(plain.size(),plain.stream().count());
+		assertEquals(readMostly.size(),readMostly.stream().count());
+	}
+
+	public void testMappedHuge() throws IOException {
+		Path file = Files.createTempFile("hexboard",".map");
+		try {
+			int side = 1 << 16; // 4G cells, mostly never touched
+			try (MappedHexBoard board = MappedHexBoard.create(file,0,0,side,side)) {
+				for (int i=0; i < MAX_LENGTH; ++i) {
+					board.add(new HexTile(terrains[i % terrains.length],new HexCoordinate(i % 1024,i / 1024 * 64)));
+				}
+			}
+			for (int j=0; j < SAMPLE; ++j) {
+				try (MappedHexBoard board = MappedHexBoard.open(file)) {
+					assertEquals(MAX_LENGTH,board.size());
+					int i = r.nextInt(MAX_LENGTH);
+					assertEquals(terrains[i % terrains.length],board.terrainAt(i % 1024,i / 1024 * 64));
+				}
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+	
 	protected <T> void testRemove(Collection<T> col, IntFunction<T> maker) {
 		ArrayList<T> samples = new ArrayList<>();
 		for (int i=0; i < MAX_LENGTH; ++i) {
@@ -172,13 +579,19 @@ public class TestEfficiency extends TestCase {
 		assertEquals(MAX_LENGTH-samples.size(),col.size());
 	}
 	
-	// Removal not yet implemented
-	/*
+	public void testHashRemove() {
+		testRemove(new HashHexBoard(),(i)->makeHexTile(i));
+	}
+	
 	public void testHBRemove() {
 		testRemove(hb,(i)->makeHexTile(i));
 		hb.clear();
 	}
-	*/
+	
+	public void testHBSortedRemove() {
+		testRemove(hb,(i)->makeRowMajorHexTile(i));
+		hb.clear();
+	}
 	
 	private static final int POWER = 20;
 	
@@ -0,0 +1,46 @@
+import edu.uwm.cs351.HashHexBoard;
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestHashHexBoard extends TestHexBoardContract<HashHexBoard> {
+
+	@Override
+	protected HashHexBoard newBoard() {
+		return new HashHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate l) {
+		return hb.terrainAt(l);
+	}
+	
+	@Override
+	protected Terrain terrainAt(int a, int b) {
+		return hb.terrainAt(a,b);
+	}
+	
+	@Override
+	protected void forEachTile(HexBoard.TileVisitor v) {
+		hb.forEachTile(v);
+	}
+	
+	@Override
+	protected void initCollections() {
+		super.initCollections();
+		ordered = false;
+	}
+
+	
+	public void testJ() {
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.LAND,h(i,i*256)));
+			hb.remove(new HexTile(Terrain.LAND,h(i,i*256)));
+		}
+		assertTrue(hb.isEmpty());
+		hb.add(e[4]);
+		testcol(hb,"hb",e[4]);
+	}
+}
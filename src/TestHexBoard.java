@@ -1,6 +1,26 @@
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.EnumMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
 
+import edu.uwm.cs351.FormatException;
 import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexBoardParser;
 import edu.uwm.cs351.HexCoordinate;
 import edu.uwm.cs351.HexTile;
 import edu.uwm.cs351.Terrain;
@@ -238,4 +258,801 @@ public class TestHexBoard extends TestCollection<HexTile> {
 	public void test96() {
 		
 	}
+	
+	
+	/// caching tiles
+	
+	public void test97() {
+		hb.setCacheTiles(true);
+		hb.add(e[3]);
+		hb.add(e[4]);
+		HexTile t = hb.iterator().next();
+		assertEquals(e[3],t);
+		assertSame(t,hb.iterator().next());
+		hb.add(new HexTile(Terrain.CITY,e[3].getLocation()));
+		t = hb.iterator().next();
+		assertEquals(Terrain.CITY,t.getTerrain());
+		assertSame(t,hb.iterator().next());
+	}
+	
+	public void test98() {
+		hb.add(e[3]);
+		HexTile t = hb.iterator().next();
+		assertNotSame(t,hb.iterator().next());
+	}
+	
+	
+	/// visiting tiles
+	
+	public void test99() {
+		makeBigTree();
+		StringBuilder sb = new StringBuilder();
+		hb.forEachTile((a,b,t) -> sb.append(t).append('<').append(a).append(',').append(b).append(',').append(a-b).append('>'));
+		StringBuilder expected = new StringBuilder();
+		for (HexTile t : hb) expected.append(t);
+		assertEquals(expected.toString(),sb.toString());
+	}
+	
+	public void test100() {
+		hb.add(e[1]);
+		hb.add(e[2]);
+		assertException(ConcurrentModificationException.class, () -> hb.forEachTile((a,b,t) -> hb.add(e[3])));
+	}
+	
+	
+	/// bulk adds
+	
+	public void test101() {
+		hb = new HexBoard(Arrays.asList(e[5],e[3],e[9],new HexTile(Terrain.CITY,e[3].getLocation()),e[1]));
+		testcol(hb,"new HexBoard(...)",e[1],new HexTile(Terrain.CITY,e[3].getLocation()),e[5],e[9]);
+	}
+	
+	public void test102() {
+		makeBigTree();
+		HexBoard other = new HexBoard(hb);
+		assertEquals(BIG,other.size());
+		assertFalse(hb.addAll(other));
+		other.add(e[0]);
+		other.add(new HexTile(Terrain.DESERT,e[7].getLocation()));
+		assertTrue(hb.addAll(other));
+		assertEquals(BIG+1,hb.size());
+		assertEquals(Terrain.DESERT,hb.terrainAt(e[7].getLocation()));
+		assertEquals(e[0],hb.iterator().next());
+	}
+	
+	public void test103() {
+		hb.add(e[4]);
+		assertFalse(hb.addAll(hb));
+		assertTrue(hb.addAll(Arrays.asList(e[2],e[6])));
+		testcol(hb,"hb",e[2],e[4],e[6]);
+	}
+	
+	
+	/// set operations with other boards
+	
+	public void test104() {
+		makeBigTree();
+		HexBoard other = new HexBoard(Arrays.asList(e[2],e[4],e[6],new HexTile(Terrain.CITY,e[8].getLocation()),e[0]));
+		assertTrue(hb.removeAll(other));
+		assertFalse(hb.removeAll(other));
+		testcol(hb,"hb",e[1],e[3],e[5],e[7],e[8],e[9],e[10],e[11],e[12],e[13]);
+	}
+	
+	public void test105() {
+		makeBigTree();
+		HexBoard other = new HexBoard(Arrays.asList(e[2],e[4],e[6],new HexTile(Terrain.CITY,e[8].getLocation()),e[0]));
+		assertTrue(hb.retainAll(other));
+		assertFalse(hb.retainAll(other));
+		testcol(hb,"hb",e[2],e[4],e[6]);
+	}
+	
+	public void test106() {
+		makeBigTree();
+		HexBoard other = new HexBoard(Arrays.asList(e[2],e[4],e[6]));
+		assertTrue(hb.containsAll(other));
+		other.add(new HexTile(Terrain.CITY,e[8].getLocation()));
+		assertFalse(hb.containsAll(other));
+		assertTrue(hb.containsAll(hb));
+		assertTrue(hb.removeAll(hb));
+		assertTrue(hb.isEmpty());
+	}
+	
+	
+	/// range queries
+	
+	public void test107() {
+		for (int a=0; a < 10; ++a) {
+			for (int b=0; b < 10; ++b) {
+				hb.add(new HexTile(Terrain.values()[(a+b)%7],h(a,b)));
+			}
+		}
+		for (int k=-1; k < 4; ++k) {
+			HexCoordinate center = h(4,5);
+			HexBoard near = hb.tilesWithin(center,k);
+			int count = 0;
+			for (HexTile t : hb) {
+				boolean close = t.getLocation().distance(center) <= k;
+				assertEquals(t + " near " + center + "?",close,near.contains(t));
+				if (close) ++count;
+			}
+			assertEquals(count,near.size());
+		}
+	}
+	
+	public void test108() {
+		makeBigTree();
+		StringBuilder sb = new StringBuilder();
+		hb.forEachTileWithin(h(6,3),2,(a,b,t) -> sb.append(t).append(h(a,b)));
+		assertEquals("MOUNTAIN<4,2,2>DESERT<5,3,2>CITY<6,3,3>LAND<7,3,4>WATER<8,4,4>",sb.toString());
+		assertTrue(hb.tilesWithin(h(100,100),5).isEmpty());
+	}
+	
+	public void test108a() {
+		final int MIN = Integer.MIN_VALUE, MAX = Integer.MAX_VALUE;
+		hb.add(new HexTile(Terrain.LAND,h(0,MIN)));
+		hb.add(new HexTile(Terrain.WATER,h(0,MAX)));
+		hb.add(new HexTile(Terrain.CITY,h(MAX,MAX)));
+		hb.add(new HexTile(Terrain.FOREST,h(MIN,MAX)));
+		hb.add(new HexTile(Terrain.DESERT,h(1,0)));
+		testcol(hb.tilesWithin(h(0,MAX),1),"near top",new HexTile(Terrain.WATER,h(0,MAX)));
+		testcol(hb.tilesWithin(h(0,MIN),1),"near bottom",new HexTile(Terrain.LAND,h(0,MIN)));
+		testcol(hb.tilesWithin(h(MAX,MAX),2),"near corner",new HexTile(Terrain.CITY,h(MAX,MAX)));
+		testcol(hb.tilesWithin(h(0,0),MAX),"far",new HexTile(Terrain.DESERT,h(1,0)),
+				new HexTile(Terrain.WATER,h(0,MAX)),new HexTile(Terrain.CITY,h(MAX,MAX)));
+		StringBuilder sb = new StringBuilder();
+		hb.forEachTileWithin(h(0,MIN),MAX,(a,b,t) -> sb.append(t));
+		assertEquals("LAND",sb.toString());
+		assertTrue(hb.tilesWithin(h(0,0),-1).isEmpty());
+		assertTrue(hb.tilesWithin(h(0,0),MIN).isEmpty());
+	}
+	
+	
+	/// window queries
+	
+	public void test109() {
+		makeBigTree();
+		Collection<HexTile> sub = hb.subBoard(h(7,3),h(1,6));
+		testcol(sub,"sub",e[7],e[8],e[9],e[10]);
+		assertTrue(sub.contains(e[8]));
+		assertFalse(sub.contains(e[11]));
+		assertFalse(sub.remove(e[6]));
+		assertException(IllegalArgumentException.class, () -> sub.add(e[0]));
+		assertTrue(sub.add(new HexTile(Terrain.CITY,h(0,4))));
+		assertEquals(5,sub.size());
+		assertEquals(BIG+1,hb.size());
+	}
+	
+	public void test110() {
+		makeBigTree();
+		Collection<HexTile> sub = hb.subBoard(h(2,0),h(9,4));
+		it = sub.iterator();
+		while (it.hasNext()) {
+			if (it.next().getTerrain() == Terrain.LAND) it.remove();
+		}
+		testcol(sub,"sub",e[2],e[3],e[4],e[5],e[6],e[8]);
+		testcol(hb,"hb",e[1],e[2],e[3],e[4],e[5],e[6],e[8],e[9],e[10],e[11],e[12],e[13]);
+		assertException(IllegalArgumentException.class, () -> hb.subBoard(h(3,3),h(2,3)));
+	}
+	
+	public void test111() {
+		for (int a=-5; a < 20; ++a) {
+			for (int b=-5; b < 20; ++b) {
+				hb.add(new HexTile(Terrain.values()[(a*b)%7 < 0 ? 0 : (a*b)%7],h(a,b)));
+			}
+		}
+		Rectangle view = new Rectangle(100,80,300,200);
+		HexBoard seen = new HexBoard();
+		hb.forEachTileIn(view,HexTile.WIDTH,(a,b,t) -> seen.add(new HexTile(t,h(a,b))));
+		for (HexTile t : hb) {
+			Polygon p = t.getLocation().toPolygon(HexTile.WIDTH);
+			if (p.intersects(view)) assertTrue(t + " should be visible",seen.contains(t));
+			Rectangle bounds = p.getBounds();
+			bounds.grow(1,1); // touching counts
+			if (seen.contains(t)) assertTrue(t + " should not be visible",bounds.intersects(view));
+		}
+	}
+	
+	public void test111a() {
+		final int MAX = Integer.MAX_VALUE;
+		hb.add(new HexTile(Terrain.LAND,h(0,0)));
+		hb.add(new HexTile(Terrain.WATER,h(0,MAX)));
+		hb.add(new HexTile(Terrain.CITY,h(MAX/2+1,MAX)));
+		hb.add(new HexTile(Terrain.FOREST,h(MAX,0)));
+		StringBuilder sb = new StringBuilder();
+		hb.forEachTileIn(new Rectangle(0,1800000000,10,300000000),1,(a,b,t) -> sb.append(t).append(h(a,b)));
+		assertEquals("CITY" + h(MAX/2+1,MAX),sb.toString());
+		sb.setLength(0);
+		hb.forEachTileIn(new Rectangle(MAX-10,0,10,1),1,(a,b,t) -> sb.append(t));
+		assertEquals("FOREST",sb.toString());
+		sb.setLength(0);
+		hb.forEachTileIn(new Rectangle(0,Integer.MIN_VALUE,10,10),1,(a,b,t) -> sb.append(t));
+		hb.forEachTileIn(new Rectangle(Integer.MIN_VALUE,-10,10,20),1,(a,b,t) -> sb.append(t));
+		assertEquals("",sb.toString());
+	}
+	
+	
+	/// navigation
+	
+	public void test112() {
+		assertException(NoSuchElementException.class, () -> hb.first());
+		assertException(NoSuchElementException.class, () -> hb.last());
+		assertNull(hb.floor(h(3,3)));
+		assertNull(hb.higher(h(3,3)));
+		makeBigTree();
+		assertEquals(e[1],hb.first());
+		assertEquals(e[13],hb.last());
+	}
+	
+	public void test113() {
+		makeBigTree();
+		assertEquals(e[6],hb.floor(h(6,3)));
+		assertEquals(e[6],hb.ceiling(h(6,3)));
+		assertEquals(e[5],hb.lower(h(6,3)));
+		assertEquals(e[7],hb.higher(h(6,3)));
+		assertEquals(e[4],hb.floor(h(0,3)));
+		assertEquals(e[5],hb.ceiling(h(0,3)));
+		assertEquals(e[4],hb.lower(h(0,3)));
+		assertEquals(e[5],hb.higher(h(0,3)));
+		assertNull(hb.lower(h(1,0)));
+		assertNull(hb.higher(h(3,7)));
+		assertEquals(e[10],hb.ceiling(h(Integer.MIN_VALUE,5)));
+	}
+	
+	public void test113a() {
+		HexTile t1 = new HexTile(Terrain.CITY,h(3,5));
+		HexTile t2 = new HexTile(Terrain.LAND,h(4,5));
+		HexTile t3 = new HexTile(Terrain.WATER,h(1,7));
+		hb.add(t3);
+		hb.add(t1);
+		hb.add(t2);
+		assertEquals(t1,hb.ceiling(h(Integer.MIN_VALUE,5)));
+		assertEquals(t2,hb.floor(h(Integer.MAX_VALUE,5)));
+		assertEquals(t2,hb.lower(h(Integer.MIN_VALUE,7)));
+		assertEquals(t3,hb.higher(h(Integer.MAX_VALUE,6)));
+		assertEquals("[CITY<3,5,-2>, LAND<4,5,-1>, WATER<1,7,-6>]",hb.toString());
+		hb.add(new HexTile(Terrain.FOREST,h(Integer.MAX_VALUE,5)));
+		hb.add(new HexTile(Terrain.FOREST,h(Integer.MIN_VALUE,7)));
+		assertEquals(Arrays.asList(t1,t2,new HexTile(Terrain.FOREST,h(Integer.MAX_VALUE,5)),
+				new HexTile(Terrain.FOREST,h(Integer.MIN_VALUE,7)),t3),new ArrayList<>(hb));
+	}
+	
+	public void test114() {
+		makeBigTree();
+		it = hb.iterator(h(7,3));
+		assertEquals(e[7],it.next());
+		it.remove();
+		assertEquals(e[8],it.next());
+		int count = 1;
+		while (it.hasNext()) {
+			it.next();
+			++count;
+		}
+		assertEquals(6,count);
+		assertFalse(hb.iterator(h(4,7)).hasNext());
+	}
+	
+	
+	/// binary format
+	
+	private HexBoard copy(HexBoard b) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		b.writeTo(out);
+		HexBoard result = new HexBoard();
+		result.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		return result;
+	}
+	
+	public void test115() throws IOException {
+		assertTrue(copy(hb).isEmpty());
+		makeBigTree();
+		hb.add(new HexTile(Terrain.DESERT,h(-5,-3)));
+		hb.add(new HexTile(Terrain.CITY,h(Integer.MAX_VALUE,Integer.MIN_VALUE)));
+		hb.add(new HexTile(Terrain.FOREST,h(Integer.MIN_VALUE,Integer.MAX_VALUE)));
+		HexBoard result = copy(hb);
+		assertEquals(new ArrayList<>(hb),new ArrayList<>(result));
+	}
+	
+	public void test116() throws IOException {
+		makeBigTree();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		hb.writeTo(out);
+		out.write(42);
+		byte[] bytes = out.toByteArray();
+		assertEquals("magic, count, length, two bytes per tile, terrains, extra",4+1+1+2*BIG+(BIG+1)/2+1,bytes.length);
+		HexBoard other = new HexBoard();
+		other.add(e[0]);
+		other.add(new HexTile(Terrain.CITY,e[1].getLocation()));
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+		assertTrue(other.readFrom(in));
+		assertEquals(42,in.read());
+		assertEquals(BIG+1,other.size());
+		assertEquals(e[1],other.iterator(e[1].getLocation()).next());
+		try {
+			other.readFrom(new ByteArrayInputStream(Arrays.copyOf(bytes,bytes.length-3)));
+			assertFalse("read a truncated board",true);
+		} catch (IOException ex) {
+			assertEquals(BIG+1,other.size());
+		}
+		try {
+			other.readFrom(new ByteArrayInputStream("HXB0".getBytes()));
+			assertFalse("read a bad board",true);
+		} catch (IOException ex) {
+			assertEquals(BIG+1,other.size());
+		}
+	}
+
+	private static void writeVar(ByteArrayOutputStream out, long x) {
+		while ((x & ~0x7FL) != 0) {
+			out.write((int)(x & 0x7F) | 0x80);
+			x >>>= 7;
+		}
+		out.write((int)x);
+	}
+	
+	/**
+	 * Return a board in binary form with two tiles, the first at <5,0,5>.
+	 * @param db change in row for the second tile
+	 * @param d2 gap or first coordinate for the second tile
+	 * @return bytes of the board
+	 */
+	private static byte[] twoTiles(long db, long d2) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeVar(body,0);
+		writeVar(body,10);
+		writeVar(body,db);
+		writeVar(body,d2);
+		body.write(Terrain.WATER.ordinal() | Terrain.LAND.ordinal() << 4);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('H'); out.write('X'); out.write('B'); out.write('1');
+		writeVar(out,2);
+		writeVar(out,body.size());
+		out.write(body.toByteArray(),0,body.size());
+		return out.toByteArray();
+	}
+	
+	public void test116a() throws IOException {
+		HexBoard other = new HexBoard();
+		assertTrue(other.readFrom(new ByteArrayInputStream(twoTiles(0,1))));
+		assertEquals("[WATER<5,0,5>, LAND<7,0,7>]",other.toString());
+		other.clear();
+		assertTrue(other.readFrom(new ByteArrayInputStream(twoTiles(1,10))));
+		assertEquals("[WATER<5,0,5>, LAND<5,1,4>]",other.toString());
+		other.clear();
+		for (long[] bad : new long[][] {{0,-1},{0,-0xFF},{0,Long.MAX_VALUE},{-1,10},{Long.MIN_VALUE,10}}) {
+			try {
+				other.readFrom(new ByteArrayInputStream(twoTiles(bad[0],bad[1])));
+				assertFalse("read a board with keys out of order",true);
+			} catch (IOException ex) {
+				assertTrue(other.isEmpty());
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('H'); out.write('X'); out.write('B'); out.write('1');
+		writeVar(out,Integer.MAX_VALUE-9);
+		writeVar(out,(Integer.MAX_VALUE-9)*5L/2);
+		for (int i=0; i < 6; ++i) out.write(0);
+		try {
+			other.readFrom(new ByteArrayInputStream(out.toByteArray()));
+			assertFalse("read a board that ends early",true);
+		} catch (IOException ex) {
+			assertTrue(other.isEmpty());
+		}
+		out.reset();
+		out.write('H'); out.write('X'); out.write('B'); out.write('1');
+		writeVar(out,Integer.MAX_VALUE-9);
+		writeVar(out,Integer.MAX_VALUE/2);
+		try {
+			other.readFrom(new ByteArrayInputStream(out.toByteArray()));
+			assertFalse("read a board too short for its tiles",true);
+		} catch (IOException ex) {
+			assertEquals("bad hex board header",ex.getMessage());
+		}
+	}
+	
+	public void test117() throws IOException {
+		makeBigTree();
+		StringBuilder sb = new StringBuilder();
+		for (HexTile t : hb) sb.append(t).append(t.getLocation().a() % 2 == 0 ? "\n" : "  ");
+		String text = sb.toString();
+		assertEquals(hb.toString(),HexBoardParser.parse(new StringReader(text)).toString());
+		HexBoard other = new HexBoard();
+		assertEquals(BIG,HexBoardParser.parseInto(CharBuffer.wrap(text),other));
+		assertEquals(hb.toString(),other.toString());
+		other.clear();
+		other.add(new HexTile(Terrain.CITY,e[1].getLocation()));
+		assertEquals(BIG,HexBoardParser.parseInto(ByteBuffer.wrap(text.getBytes()),other));
+		assertEquals(hb.toString(),other.toString());
+		assertEquals(0,HexBoardParser.parseInto(CharBuffer.wrap(" \n\t"),other));
+		assertEquals(BIG,other.size());
+	}
+
+	private void assertBadText(String text, String where) {
+		HexBoard other = new HexBoard(hb);
+		try {
+			HexBoardParser.parseInto(CharBuffer.wrap(text),other);
+			assertFalse("parsed " + text,true);
+		} catch (FormatException ex) {
+			assertTrue(ex.getMessage(),ex.getMessage().startsWith(where + ":"));
+		}
+		assertEquals(hb.toString(),other.toString());
+	}
+
+	public void test118() {
+		hb.add(e[3]);
+		assertBadText("LAND<1,0,1> LAND<1,0>","line 1, column 21");
+		assertBadText("LAND<1,0,1>\nFOREST<3,1,3>","line 2, column 7");
+		assertBadText("LAND<1,0,1>\n\n  PLAIN<1,1,0>","line 3, column 3");
+		assertBadText("LAND<1,0,1>WATER<2,0,2>","line 1, column 12");
+		assertBadText("LAND<1,x,1>","line 1, column 8");
+		assertBadText("LAND<1,99999999999,1>","line 1, column 17");
+		assertBadText("<1,0,1>","line 1, column 1");
+		assertBadText("land<1,0,1>","line 1, column 1");
+	}
+
+	public void test118a() {
+		String text = "CITY<2,1,1> LAND<1,0,1> WATER<2,1,1> FOREST<0,0,0>";
+		HexBoard other = new HexBoard();
+		assertEquals(4,HexBoardParser.parseInto(CharBuffer.wrap(text),other));
+		assertEquals("[FOREST<0,0,0>, LAND<1,0,1>, WATER<2,1,1>]",other.toString());
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.LAND,h(i%30,i/30)));
+		}
+		HexBoard snap = hb.snapshot();
+		assertEquals(4,HexBoardParser.parseInto(CharBuffer.wrap(text),hb));
+		assertEquals(Terrain.WATER,hb.terrainAt(h(2,1)));
+		assertEquals(Terrain.FOREST,hb.terrainAt(h(0,0)));
+		assertEquals(1000,hb.size());
+		assertEquals(Terrain.LAND,snap.terrainAt(h(2,1)));
+		assertException(UnsupportedOperationException.class, () -> HexBoardParser.parseInto(CharBuffer.wrap(text),snap));
+	}
+
+	public void test119() {
+		makeBigTree();
+		HexBoard snap = hb.snapshot();
+		assertTrue(snap.isSnapshot());
+		assertFalse(hb.isSnapshot());
+		assertSame(snap,snap.snapshot());
+		assertTrue(hb.remove(e[6]));
+		assertTrue(hb.add(new HexTile(Terrain.CITY,e[1].getLocation())));
+		hb.add(e[0]);
+		assertEquals(BIG,snap.size());
+		assertTrue(snap.contains(e[6]));
+		assertTrue(snap.contains(e[1]));
+		assertFalse(snap.contains(e[0]));
+		assertEquals(BIG,hb.size());
+		assertException(UnsupportedOperationException.class, () -> snap.add(e[0]));
+		assertException(UnsupportedOperationException.class, () -> snap.remove(e[1]));
+		assertException(UnsupportedOperationException.class, () -> snap.clear());
+		assertException(UnsupportedOperationException.class, () -> snap.addAll(hb));
+		assertException(UnsupportedOperationException.class, () -> snap.retainAll(hb));
+		Iterator<HexTile> it = snap.iterator();
+		it.next();
+		assertException(UnsupportedOperationException.class, () -> it.remove());
+		assertEquals(BIG,snap.size());
+	}
+
+	public void test120() {
+		makeBigTree();
+		HexBoard snap = hb.snapshot();
+		HexBoard fork = new HexBoard(snap);
+		HexBoard copy = new HexBoard(hb);
+		for (Iterator<HexTile> it = hb.iterator(); it.hasNext(); ) {
+			if (it.next().getTerrain() != Terrain.LAND) it.remove();
+		}
+		for (Iterator<HexTile> it = fork.iterator(); it.hasNext(); ) {
+			if (it.next().getTerrain() == Terrain.LAND) it.remove();
+		}
+		copy.clear();
+		testcol(hb,"hb",e[1],e[7],e[13]);
+		assertEquals(BIG-3,fork.size());
+		assertFalse(fork.contains(e[7]));
+		assertTrue(fork.contains(e[8]));
+		assertEquals(BIG,snap.size());
+		assertTrue(snap.containsAll(Arrays.asList(e).subList(1,BIG+1)));
+		assertTrue(fork.add(e[7]));
+		assertTrue(copy.add(e[0]));
+		assertEquals(1,copy.size());
+		assertEquals(BIG,snap.size());
+	}
+
+	public void test121() {
+		makeBigTree();
+		assertFalse(hb.isJournaling());
+		assertException(IllegalStateException.class, () -> hb.checkpoint());
+		hb.setJournaling(true);
+		int start = hb.checkpoint();
+		hb.add(e[0]);
+		hb.remove(e[5]);
+		hb.add(new HexTile(Terrain.CITY,e[1].getLocation()));
+		int middle = hb.checkpoint();
+		assertEquals(start+3,middle);
+		hb.clear();
+		assertEquals(BIG+3,hb.checkpoint());
+		assertEquals(BIG,hb.rollback(middle));
+		assertEquals(BIG,hb.size());
+		assertEquals(Terrain.CITY,hb.terrainAt(e[1].getLocation()));
+		assertEquals(3,hb.rollback(start));
+		preserveOrder = true;
+		testcol(hb,"hb",e[1],e[2],e[3],e[4],e[5],e[6],e[7],e[8],e[9],e[10],e[11],e[12],e[13]);
+		assertTrue(hb.redo());
+		assertEquals(middle,hb.checkpoint());
+		assertTrue(hb.contains(e[0]));
+		assertFalse(hb.contains(e[5]));
+		assertTrue(hb.redo());
+		assertTrue(hb.isEmpty());
+		assertFalse(hb.redo());
+	}
+
+	public void test122() {
+		hb.setJournaling(true);
+		hb.add(e[1]);
+		hb.add(e[2]);
+		int cp = hb.checkpoint();
+		hb.addAll(Arrays.asList(e).subList(3,8));
+		hb.retainAll(Arrays.asList(e[1],e[4],e[6]));
+		Iterator<HexTile> it = hb.iterator();
+		it.next();
+		it.remove();
+		assertEquals(2,hb.size());
+		assertEquals(10,hb.rollback(cp));
+		testcol(hb,"hb",e[1],e[2]);
+		assertException(IllegalArgumentException.class, () -> hb.rollback(cp+1));
+		hb.add(e[9]);
+		assertFalse(hb.redo());
+		assertException(IllegalArgumentException.class, () -> hb.rollback(-1));
+		assertEquals(1,hb.rollback(cp));
+		hb.setJournaling(false);
+		assertException(IllegalStateException.class, () -> hb.rollback(0));
+		assertException(UnsupportedOperationException.class, () -> hb.snapshot().setJournaling(true));
+	}
+
+	/**
+	 * Split a spliterator as far as it goes, and then traverse the parts in order.
+	 */
+	private void splitAll(Spliterator<HexTile> sp, List<HexTile> result) {
+		Spliterator<HexTile> prefix = sp.trySplit();
+		if (prefix != null) {
+			assertTrue(prefix.hasCharacteristics(Spliterator.SORTED));
+			splitAll(prefix,result);
+			splitAll(sp,result);
+		} else sp.forEachRemaining(result::add);
+	}
+
+	public void test123() {
+		makeBigTree();
+		Spliterator<HexTile> sp = hb.spliterator();
+		assertEquals(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED | Spliterator.SORTED | Spliterator.DISTINCT | Spliterator.NONNULL, sp.characteristics());
+		assertEquals(BIG,sp.getExactSizeIfKnown());
+		assertTrue(sp.tryAdvance((t) -> assertEquals(e[1],t)));
+		assertEquals(BIG-1,sp.estimateSize());
+		assertNull(sp.trySplit());
+		List<HexTile> all = new ArrayList<>();
+		splitAll(hb.spliterator(),all);
+		assertEquals(Arrays.asList(e).subList(1,BIG+1),all);
+		assertEquals(Arrays.asList(e).subList(1,BIG+1),hb.parallelStream().collect(Collectors.toList()));
+		assertEquals(3,hb.parallelStream().filter((t) -> t.getTerrain() == Terrain.LAND).count());
+		hb.clear();
+		assertNull(hb.spliterator().trySplit());
+		assertEquals(0,hb.parallelStream().count());
+	}
+
+	public void test124() {
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.values()[i%7],h(i%30,i/30)));
+		}
+		List<HexTile> all = new ArrayList<>();
+		splitAll(hb.spliterator(),all);
+		assertEquals(new ArrayList<>(hb),all);
+		Spliterator<HexTile> sp = hb.spliterator();
+		Spliterator<HexTile> prefix = sp.trySplit();
+		assertNotNull(prefix);
+		assertTrue(sp.hasCharacteristics(Spliterator.SUBSIZED));
+		assertTrue(prefix.estimateSize() > 300 && prefix.estimateSize() < 700);
+		assertEquals(1000,prefix.estimateSize() + sp.estimateSize());
+		Spliterator<HexTile> quarter = prefix.trySplit();
+		long n = prefix.estimateSize();
+		List<HexTile> rest = new ArrayList<>();
+		prefix.forEachRemaining(rest::add);
+		assertEquals(n,rest.size());
+		assertEquals(quarter.estimateSize(),hb.rank(rest.get(0).getLocation()));
+		hb.add(new HexTile(Terrain.CITY,h(100,100)));
+		assertException(ConcurrentModificationException.class, () -> sp.tryAdvance((t) -> {}));
+		assertEquals(hb.stream().collect(Collectors.toList()),hb.parallelStream().collect(Collectors.toList()));
+	}
+
+	public void test125() {
+		assertEquals(7,hb.terrainCounts().size());
+		assertEquals(Long.valueOf(0),hb.terrainCounts().get(Terrain.CITY));
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.values()[i%7],h(i%30,i/30)));
+		}
+		EnumMap<Terrain,Long> counts = hb.terrainCounts();
+		for (Terrain t : Terrain.values()) {
+			assertEquals(hb.stream().filter((x) -> x.getTerrain() == t).count(),counts.get(t).longValue());
+		}
+		counts = hb.terrainCounts(h(5,2),h(5,3));
+		assertEquals(Long.valueOf(5),counts.get(Terrain.LAND));
+		assertEquals(Long.valueOf(4),counts.get(Terrain.CITY));
+		assertEquals(Long.valueOf(0),hb.terrainCounts(h(5,3),h(5,3)).get(Terrain.LAND));
+		counts = hb.terrainCounts(null,h(0,1));
+		assertEquals(Long.valueOf(5),counts.get(Terrain.INACCESSIBLE));
+		assertEquals(Long.valueOf(4),counts.get(Terrain.MOUNTAIN));
+	}
+	
+	public void test126() {
+		assertEquals("[]",hb.aggregate(ArrayList<HexTile>::new,
+				(l,a,b,t) -> l.add(new HexTile(t,h(a,b))),
+				(l1,l2) -> { l1.addAll(l2); return l1; }).toString());
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.values()[i%7],h(i%30,i/30)));
+		}
+		List<HexTile> all = hb.aggregate(ArrayList<HexTile>::new,
+				(l,a,b,t) -> l.add(new HexTile(t,h(a,b))),
+				(l1,l2) -> { l1.addAll(l2); return l1; });
+		assertEquals(new ArrayList<>(hb),all);
+		long[] sum = hb.aggregate(() -> new long[1], (x,a,b,t) -> x[0] += a, (x1,x2) -> { x1[0] += x2[0]; return x1; });
+		assertEquals(hb.stream().mapToLong((t) -> t.getLocation().a()).sum(),sum[0]);
+		assertException(NullPointerException.class, () -> hb.aggregate(null,(x,a,b,t) -> {},(x1,x2) -> x1));
+		HexBoard one = new HexBoard();
+		one.add(new HexTile(Terrain.CITY,h(3,3)));
+		assertException(ConcurrentModificationException.class, () -> one.aggregate(() -> one,
+				(x,a,b,t) -> x.add(new HexTile(t,h(100,100))),
+				(x1,x2) -> x1));
+	}
+
+	public void test127() {
+		assertEquals(0,hb.count(Terrain.FOREST));
+		assertEquals(0,hb.countInRows(Terrain.FOREST,-100,100));
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.values()[i%7],h(i%30,i/30)));
+		}
+		assertEquals(143,hb.count(Terrain.INACCESSIBLE));
+		assertEquals(143,hb.count(Terrain.FOREST));
+		// rows 2..3 are tiles 60 through 119
+		assertEquals(8,hb.countInRows(Terrain.FOREST,2,3));
+		assertEquals(0,hb.countInRows(Terrain.FOREST,3,2));
+		assertEquals(143,hb.countInRows(Terrain.FOREST,Integer.MIN_VALUE,Integer.MAX_VALUE));
+		assertEquals(4,hb.count(Terrain.FOREST,h(5,2),h(0,3)));
+		assertEquals(5,hb.count(Terrain.LAND,h(5,2),h(5,3)));
+		assertEquals(0,hb.count(Terrain.LAND,h(5,2),h(5,2)));
+		assertException(IllegalArgumentException.class, () -> hb.count(Terrain.LAND,h(5,3),h(5,2)));
+		assertException(NullPointerException.class, () -> hb.count(null));
+		assertEquals(30,hb.subBoard(h(5,2),h(5,3)).size());
+	}
+	
+	public void test127a() {
+		HexTile t1 = new HexTile(Terrain.CITY,h(3,5));
+		HexTile t2 = new HexTile(Terrain.CITY,h(4,5));
+		HexTile t3 = new HexTile(Terrain.WATER,h(1,7));
+		hb.add(t1);
+		hb.add(t2);
+		hb.add(t3);
+		hb.add(new HexTile(Terrain.LAND,h(Integer.MIN_VALUE,6)));
+		hb.add(new HexTile(Terrain.LAND,h(Integer.MAX_VALUE,6)));
+		Collection<HexTile> sub = hb.subBoard(h(Integer.MIN_VALUE,5),h(Integer.MIN_VALUE,7));
+		assertEquals(4,sub.size());
+		assertEquals(sub.size(),new ArrayList<>(sub).size());
+		assertEquals(Arrays.asList(t1,t2),new ArrayList<>(hb.subBoard(h(Integer.MIN_VALUE,5),h(5,5))));
+		assertEquals(2,hb.count(Terrain.CITY,h(Integer.MIN_VALUE,5),h(5,5)));
+		assertEquals(2,hb.countInRows(Terrain.LAND,6,Integer.MAX_VALUE));
+		assertEquals(1,hb.countInRows(Terrain.WATER,Integer.MIN_VALUE,7));
+		assertEquals(0,hb.count(Terrain.WATER,h(Integer.MIN_VALUE,5),h(Integer.MIN_VALUE,7)));
+	}
+	
+	public void test128() {
+		for (int i=0; i < 100; ++i) {
+			hb.add(new HexTile(Terrain.values()[i%7],h(i%10,i/10)));
+		}
+		HexBoard snap = hb.snapshot();
+		for (int i=0; i < 100; i += 3) {
+			hb.add(new HexTile(Terrain.CITY,h(i%10,i/10)));
+		}
+		Iterator<HexTile> it = hb.iterator();
+		while (it.hasNext()) {
+			if (it.next().getLocation().a() == 4) it.remove();
+		}
+		assertEquals(15,snap.count(Terrain.INACCESSIBLE));
+		assertEquals(14,snap.count(Terrain.CITY));
+		for (Terrain t : Terrain.values()) {
+			assertEquals(hb.stream().filter((x) -> x.getTerrain() == t).count(),hb.count(t));
+			assertEquals(hb.stream().filter((x) -> x.getTerrain() == t && x.getLocation().b() >= 3 && x.getLocation().b() <= 6).count(),
+					hb.countInRows(t,3,6));
+		}
+		hb.removeAll(snap);
+		assertEquals(hb.size(),hb.count(Terrain.CITY));
+	}
+
+	public void test129() {
+		assertException(IndexOutOfBoundsException.class, () -> hb.tileAt(0));
+		assertFalse(hb.iterator(0).hasNext());
+		assertEquals(0,hb.rank(h(3,3)));
+		assertException(NoSuchElementException.class, () -> hb.randomTile(new Random()));
+		makeBigTree();
+		for (int i=0; i < BIG; ++i) {
+			assertEquals(e[i+1],hb.tileAt(i));
+			assertEquals(i,hb.rank(e[i+1].getLocation()));
+		}
+		assertException(IndexOutOfBoundsException.class, () -> hb.tileAt(-1));
+		assertException(IndexOutOfBoundsException.class, () -> hb.tileAt(BIG));
+		assertException(IndexOutOfBoundsException.class, () -> hb.iterator(BIG+1));
+		assertEquals(BIG,hb.rank(h(100,100)));
+		assertEquals(0,hb.rank(h(-100,-100)));
+		Iterator<HexTile> it = hb.iterator(5);
+		assertEquals(e[6],it.next());
+		it.remove();
+		assertEquals(e[7],it.next());
+		assertEquals(e[7],hb.tileAt(5));
+		assertFalse(hb.iterator(BIG-1).hasNext());
+	}
+	
+	public void test130() {
+		for (int i=0; i < 1000; ++i) {
+			hb.add(new HexTile(Terrain.values()[i%7],h(i%30,i/30)));
+		}
+		for (int i=0; i < 1000; i += 3) {
+			hb.remove(new HexTile(Terrain.values()[i%7],h(i%30,i/30)));
+		}
+		HexBoard snap = hb.snapshot();
+		hb.clear();
+		List<HexTile> all = new ArrayList<>(snap);
+		for (int i=0; i < all.size(); ++i) {
+			assertEquals(all.get(i),snap.tileAt(i));
+			assertEquals(i,snap.rank(all.get(i).getLocation()));
+		}
+	}
+	
+	public void test130a() {
+		// a small, lopsided tree, so that sampling is cheap enough to do often
+		for (int i=0; i < 60; ++i) {
+			hb.add(new HexTile(Terrain.values()[i%7],h(i%8,i/8)));
+		}
+		for (int i=0; i < 60; i += 4) {
+			hb.remove(new HexTile(Terrain.values()[i%7],h(i%8,i/8)));
+		}
+		int n = hb.size();
+		int samples = 400*n;
+		Random r = new Random(42);
+		int[] hits = new int[n];
+		for (int i=0; i < samples; ++i) {
+			++hits[hb.rank(hb.randomTile(r).getLocation())];
+		}
+		// chi-square with n-1 = 44 degrees of freedom: 99.9% of the time below 78.7
+		double expected = (double)samples/n, chi2 = 0;
+		for (int k : hits) {
+			assertTrue(k > 0);
+			chi2 += (k-expected)*(k-expected)/expected;
+		}
+		assertTrue("chi-square " + chi2,chi2 < 78.7);
+	}
+
+	public void test131() {
+		assertTrue(hb.neighbors(h(3,3)).isEmpty());
+		for (int a=0; a < 5; ++a) {
+			for (int b=0; b < 5; ++b) {
+				hb.add(new HexTile(Terrain.values()[(a+b)%7],h(a,b)));
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		hb.forEachNeighbor(2,2,(a,b,t) -> sb.append(t).append('<').append(a).append(',').append(b).append(',').append(a-b).append('>'));
+		assertEquals("LAND<1,1,0>FOREST<2,1,1>FOREST<1,2,-1>CITY<3,2,1>CITY<2,3,-1>DESERT<3,3,0>",sb.toString());
+		assertEquals("[WATER<1,0,1>, WATER<0,1,-1>, LAND<1,1,0>]",hb.neighbors(h(0,0)).toString());
+		assertEquals(hb.tilesWithin(h(4,4),1).size()-1,hb.neighbors(h(4,4)).size());
+		assertEquals(1,hb.neighbors(h(5,5)).size());
+		for (HexTile t : hb.neighbors(h(1,3))) {
+			assertEquals(1,t.getLocation().distance(h(1,3)));
+		}
+	}
+	
+	public void test132() {
+		hb.add(new HexTile(Terrain.CITY,h(Integer.MIN_VALUE,Integer.MAX_VALUE)));
+		hb.add(new HexTile(Terrain.LAND,h(Integer.MAX_VALUE,Integer.MAX_VALUE)));
+		hb.add(new HexTile(Terrain.WATER,h(Integer.MIN_VALUE,Integer.MAX_VALUE-1)));
+		assertEquals("[WATER<-2147483648,2147483646," + (Integer.MIN_VALUE-(Integer.MAX_VALUE-1)) + ">]",
+				hb.neighbors(h(Integer.MIN_VALUE,Integer.MAX_VALUE)).toString());
+		assertTrue(hb.neighbors(h(Integer.MAX_VALUE,Integer.MAX_VALUE)).isEmpty());
+		assertException(NullPointerException.class, () -> hb.forEachNeighbor(0,0,null));
+		hb.add(new HexTile(Terrain.FOREST,h(1,1)));
+		hb.add(new HexTile(Terrain.FOREST,h(0,1)));
+		assertException(ConcurrentModificationException.class, () -> hb.forEachNeighbor(0,0,(a,b,t) -> hb.add(new HexTile(Terrain.DESERT,h(a,b)))));
+	}
 }
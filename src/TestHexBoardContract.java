@@ -0,0 +1,162 @@
+import java.util.Collection;
+
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.Terrain;
+
+/*
+ * Abstract class for the spot checks that every implementation of the
+ * HexBoard ADT must pass.  Do not try to run it on its own.
+ * Subclasses create the board and give access to the methods
+ * that are not part of Collection; they add the tests for their own
+ * implementation.
+ */
+public abstract class TestHexBoardContract<B extends Collection<HexTile>> extends TestCollection<HexTile> {
+
+	protected B hb;
+	protected boolean ordered = true; // whether iteration goes by rows
+	protected boolean lookupNull = true; // whether terrainAt(null) returns null
+	
+	protected HexCoordinate h(int a, int b) { return new HexCoordinate(a,b); }
+	
+	/**
+	 * Create a new empty board that permits at least the coordinates
+	 * from (-20,-20) to (39,29).
+	 * @return new empty board
+	 */
+	protected abstract B newBoard();
+	
+	protected abstract Terrain terrainAt(HexCoordinate l);
+	
+	protected Terrain terrainAt(int a, int b) {
+		return terrainAt(h(a,b));
+	}
+	
+	protected abstract void forEachTile(HexBoard.TileVisitor v);
+	
+	@Override
+	protected void initCollections() {
+		c = hb = newBoard();
+		e = new HexTile[]{
+				new HexTile(Terrain.INACCESSIBLE,h(0,0)),
+				new HexTile(Terrain.LAND,h(1,0)),
+				new HexTile(Terrain.WATER,h(2,0)),
+				new HexTile(Terrain.FOREST,h(3,1)),
+				new HexTile(Terrain.MOUNTAIN,h(4,2)),
+				new HexTile(Terrain.DESERT,h(5,3)),
+				new HexTile(Terrain.CITY,h(6,3)),
+				new HexTile(Terrain.LAND,h(7,3)),
+				new HexTile(Terrain.WATER,h(8,4)),
+				new HexTile(Terrain.FOREST,h(9,4)),
+				new HexTile(Terrain.MOUNTAIN,h(0,5)),
+				new HexTile(Terrain.DESERT,h(1,6)),
+				new HexTile(Terrain.CITY,h(2,6)),
+				new HexTile(Terrain.LAND,h(3,7))};
+		permitNulls = false;
+		preserveOrder = false;
+		permitDuplicates = false;
+	}
+
+
+	/// some spot checks:
+	
+	public void testA() {
+		assertException(NullPointerException.class, () -> hb.add(null));
+	}
+	
+	public void testB() {
+		HexTile t = new HexTile(Terrain.LAND,h(0,0));
+		assertTrue(hb.add(t));
+		assertFalse(hb.add(t));
+	}
+	
+	public void testC() {
+		HexTile t = new HexTile(Terrain.LAND,h(0,0));
+		hb.add(e[0]);
+		assertTrue(hb.add(t));
+		assertEquals(1,hb.size());
+		assertTrue(hb.contains(t));
+	}
+	
+	public void testD() {
+		HexTile t = new HexTile(Terrain.CITY,h(5,3));
+		hb.add(t);
+		hb.add(e[5]);
+		assertEquals(1,hb.size());
+	}
+	
+	public void testE() {
+		hb.add(e[3]);
+		hb.add(e[4]);
+		hb.add(e[5]);
+		assertEquals(Terrain.FOREST,terrainAt(h(3,1)));
+		assertEquals(Terrain.MOUNTAIN,terrainAt(4,2));
+	}
+	
+	public void testG() {
+		HexTile t = new HexTile(Terrain.CITY,h(5,3));
+		hb.add(e[5]);
+		assertFalse(hb.contains(t));
+		assertFalse(hb.remove(t));
+		assertTrue(hb.contains(e[5]));
+	}
+	
+	public void testH() {
+		hb.add(e[1]);
+		hb.add(e[2]);
+		hb.add(new HexTile(Terrain.CITY,e[2].getLocation()));
+		assertEquals(Terrain.CITY,terrainAt(e[2].getLocation()));
+		assertEquals(null,terrainAt(e[3].getLocation()));
+		if (lookupNull) assertEquals(null,terrainAt(null));
+	}
+
+
+	/// growing and removing
+	
+	public void testI() {
+		for (int a=-20; a < 20; ++a) {
+			for (int b=-20; b < 20; ++b) {
+				hb.add(new HexTile(Terrain.values()[(a+b+40)%7],h(a,b)));
+			}
+		}
+		assertEquals(1600,hb.size());
+		for (int a=-20; a < 20; ++a) {
+			for (int b=-20; b < 20; ++b) {
+				assertEquals(Terrain.values()[(a+b+40)%7],terrainAt(a,b));
+				if (((a+b)&1) == 0) assertTrue(hb.remove(new HexTile(Terrain.values()[(a+b+40)%7],h(a,b))));
+			}
+		}
+		assertEquals(800,hb.size());
+		assertNull(terrainAt(0,0));
+		assertEquals(Terrain.values()[41%7],terrainAt(1,0));
+	}
+	
+	public void testK() {
+		for (int i=1; i < e.length; ++i) {
+			hb.add(e[i]);
+		}
+		int count = 0;
+		it = hb.iterator();
+		while (it.hasNext()) {
+			HexTile t = it.next();
+			if (t.getTerrain() == Terrain.LAND) it.remove();
+			else ++count;
+		}
+		assertEquals(count,hb.size());
+		preserveOrder = ordered;
+		testcol(hb,"hb",e[2],e[3],e[4],e[5],e[6],e[8],e[9],e[10],e[11],e[12]);
+	}
+	
+	public void testL() {
+		for (int i=0; i < e.length; ++i) {
+			hb.add(e[i]);
+		}
+		StringBuilder sb = new StringBuilder();
+		forEachTile((a,b,t) -> sb.append(new HexTile(t,h(a,b))));
+		for (HexTile t : hb) {
+			assertTrue(sb.indexOf(t.toString()) >= 0);
+		}
+		assertEquals(e.length,hb.size());
+	}
+}
@@ -0,0 +1,151 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.MappedHexBoard;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestMappedHexBoard extends TestHexBoardContract<MappedHexBoard> {
+
+	private Path file;
+	
+	@Override
+	protected MappedHexBoard newBoard() {
+		try {
+			file = Files.createTempFile("hexboard",".map");
+			return MappedHexBoard.create(file,-20,-20,60,50);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate l) {
+		return hb.terrainAt(l);
+	}
+	
+	@Override
+	protected Terrain terrainAt(int a, int b) {
+		return hb.terrainAt(a,b);
+	}
+	
+	@Override
+	protected void forEachTile(HexBoard.TileVisitor v) {
+		hb.forEachTile(v);
+	}
+	
+	@Override
+	protected void tearDown() throws IOException {
+		hb.close();
+		Files.delete(file);
+	}
+
+	
+	public void testJ() {
+		assertException(IllegalArgumentException.class, () -> hb.add(new HexTile(Terrain.LAND,h(40,0))));
+		assertException(IllegalArgumentException.class, () -> hb.add(new HexTile(Terrain.LAND,h(0,-21))));
+		assertException(IllegalArgumentException.class, () -> {
+			try {
+				MappedHexBoard.create(file,0,0,0,10);
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		});
+		assertNull(hb.terrainAt(1000,1000));
+		assertTrue(hb.add(new HexTile(Terrain.LAND,h(39,29))));
+		assertTrue(hb.add(new HexTile(Terrain.CITY,h(-20,-20))));
+		testcol(hb,"hb",new HexTile(Terrain.CITY,h(-20,-20)),new HexTile(Terrain.LAND,h(39,29)));
+	}
+
+	
+	/// files
+	
+	public void testM() throws IOException {
+		for (int i=0; i < e.length; ++i) {
+			hb.add(e[i]);
+		}
+		hb.remove(e[7]);
+		hb.close();
+		hb = MappedHexBoard.open(file);
+		assertEquals(e.length-1,hb.size());
+		assertEquals(Terrain.CITY,hb.terrainAt(6,3));
+		assertNull(hb.terrainAt(7,3));
+		preserveOrder = true;
+		testcol(hb,"reopened",e[0],e[1],e[2],e[3],e[4],e[5],e[6],e[8],e[9],e[10],e[11],e[12],e[13]);
+	}
+	
+	public void testN() throws IOException {
+		Path other = Files.createTempFile("hexboard",".txt");
+		try {
+			Files.write(other,"not a hex board, but long enough to check".getBytes());
+			MappedHexBoard.open(other);
+			assertFalse("opened a bad file",true);
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage().contains("not a hex board"));
+		} finally {
+			Files.delete(other);
+		}
+	}
+	
+	public void testO() throws IOException {
+		for (int i=0; i < e.length; ++i) {
+			hb.add(e[i]);
+		}
+		hb.close();
+		hb = MappedHexBoard.openReadOnly(file);
+		assertEquals(e.length,hb.size());
+		assertEquals(Terrain.FOREST,hb.terrainAt(3,1));
+		assertException(UnsupportedOperationException.class, () -> hb.add(new HexTile(Terrain.LAND,h(10,10))));
+		assertException(UnsupportedOperationException.class, () -> hb.remove(e[0]));
+		assertException(UnsupportedOperationException.class, () -> hb.clear());
+		it = hb.iterator();
+		it.next();
+		assertException(UnsupportedOperationException.class, () -> it.remove());
+		hb.force();
+		assertEquals(e.length,hb.size());
+	}
+	
+	public void testP() throws IOException {
+		for (int i=0; i < e.length; ++i) {
+			hb.add(e[i]);
+		}
+		long length = Files.size(file);
+		hb.clear();
+		assertEquals(length,Files.size(file));
+		assertEquals(0,hb.size());
+		assertNull(hb.terrainAt(0,0));
+		assertFalse(hb.iterator().hasNext());
+		assertTrue(hb.add(e[3]));
+		assertTrue(hb.add(new HexTile(Terrain.LAND,h(39,29))));
+		hb.close();
+		hb = MappedHexBoard.open(file);
+		testcol(hb,"reopened",e[3],new HexTile(Terrain.LAND,h(39,29)));
+	}
+	
+	public void testQ() throws IOException {
+		hb.close();
+		Path other = Files.createTempFile("hexboard",".map");
+		try {
+			hb = MappedHexBoard.create(other,Integer.MAX_VALUE-9,0,10,10);
+			hb.close();
+			try (FileChannel ch = FileChannel.open(other,StandardOpenOption.WRITE)) {
+				ch.write(ByteBuffer.allocate(4).putInt(0,11),16); // one too many columns
+			}
+			MappedHexBoard.open(other);
+			assertFalse("opened a corrupt file",true);
+		} catch (IOException ex) {
+			assertTrue(ex.getMessage().contains("corrupt"));
+		} finally {
+			Files.delete(other);
+			hb = MappedHexBoard.open(file);
+		}
+	}
+}
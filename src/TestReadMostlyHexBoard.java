@@ -0,0 +1,80 @@
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.ReadMostlyHexBoard;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestReadMostlyHexBoard extends TestHexBoardContract<ReadMostlyHexBoard> {
+
+	@Override
+	protected ReadMostlyHexBoard newBoard() {
+		return new ReadMostlyHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate l) {
+		return hb.terrainAt(l);
+	}
+	
+	@Override
+	protected void forEachTile(HexBoard.TileVisitor v) {
+		hb.forEachTile(v);
+	}
+	
+	@Override
+	protected void initCollections() {
+		super.initCollections();
+		failFast = false;
+		lookupNull = false;
+	}
+
+	
+	public void testE2() {
+		hb.add(e[3]);
+		hb.add(e[4]);
+		HexBoard snap = hb.snapshot();
+		hb.add(e[5]);
+		assertEquals(Terrain.FOREST,hb.terrainAt(h(3,1)));
+		assertEquals(Terrain.DESERT,hb.terrainAt(h(5,3)));
+		assertEquals(2,snap.size());
+		assertTrue(snap.isSnapshot());
+	}
+	
+	public void testJ() throws InterruptedException {
+		Thread[] workers = new Thread[4];
+		for (int w=0; w < workers.length; ++w) {
+			final int b = w;
+			workers[w] = new Thread(() -> {
+				for (int a=0; a < 1000; ++a) {
+					hb.add(new HexTile(Terrain.values()[a%7],h(a,b)));
+					if (a % 3 == 0) hb.remove(new HexTile(Terrain.values()[a%7],h(a,b)));
+				}
+			});
+			workers[w].start();
+		}
+		for (Thread t : workers) {
+			t.join();
+		}
+		assertEquals(4*666,hb.size());
+		assertEquals(Terrain.values()[1],hb.terrainAt(h(1,3)));
+		assertNull(hb.terrainAt(h(3,1)));
+	}
+	
+	public void testJ2() {
+		for (int i=1; i < 5; ++i) {
+			hb.add(e[i]);
+		}
+		it = hb.iterator();
+		assertEquals(e[1],it.next());
+		hb.remove(e[3]);
+		hb.add(e[5]);
+		it.remove();
+		assertFalse(hb.contains(e[1]));
+		assertEquals(e[2],it.next());
+		assertEquals(e[3],it.next());
+		assertEquals(e[4],it.next());
+		assertFalse(it.hasNext());
+		testcol(hb,"hb",e[2],e[4],e[5]);
+	}
+}
@@ -0,0 +1,91 @@
+import edu.uwm.cs351.HexBoard;
+import edu.uwm.cs351.HexCoordinate;
+import edu.uwm.cs351.HexTile;
+import edu.uwm.cs351.RunLengthHexBoard;
+import edu.uwm.cs351.Terrain;
+
+
+public class TestRunLengthHexBoard extends TestHexBoardContract<RunLengthHexBoard> {
+
+	@Override
+	protected RunLengthHexBoard newBoard() {
+		return new RunLengthHexBoard();
+	}
+	
+	@Override
+	protected Terrain terrainAt(HexCoordinate l) {
+		return hb.terrainAt(l);
+	}
+	
+	@Override
+	protected Terrain terrainAt(int a, int b) {
+		return hb.terrainAt(a,b);
+	}
+	
+	@Override
+	protected void forEachTile(HexBoard.TileVisitor v) {
+		hb.forEachTile(v);
+	}
+
+	
+	public void testJ() {
+		assertTrue(hb.addRun(-10,2,20,Terrain.WATER));
+		assertFalse(hb.addRun(-5,2,10,Terrain.WATER));
+		assertFalse(hb.add(new HexTile(Terrain.WATER,h(9,2))));
+		assertEquals(20,hb.size());
+		assertEquals(1,hb.runCount());
+		assertTrue(hb.add(new HexTile(Terrain.LAND,h(0,2))));
+		assertEquals(3,hb.runCount());
+		assertEquals(20,hb.size());
+		assertTrue(hb.remove(new HexTile(Terrain.LAND,h(0,2))));
+		assertEquals(2,hb.runCount());
+		assertTrue(hb.add(new HexTile(Terrain.WATER,h(0,2))));
+		assertEquals(1,hb.runCount());
+		assertTrue(hb.addRun(-12,2,5,Terrain.DESERT));
+		assertTrue(hb.addRun(5,2,10,Terrain.DESERT));
+		assertEquals(3,hb.runCount());
+		assertEquals(27,hb.size());
+		assertEquals(Terrain.DESERT,hb.terrainAt(-8,2));
+		assertEquals(Terrain.WATER,hb.terrainAt(-7,2));
+		assertEquals(Terrain.WATER,hb.terrainAt(4,2));
+		assertEquals(Terrain.DESERT,hb.terrainAt(14,2));
+		assertNull(hb.terrainAt(15,2));
+		assertNull(hb.terrainAt(0,3));
+		assertTrue(hb.addRun(-12,2,27,Terrain.DESERT));
+		assertEquals(1,hb.runCount());
+		assertEquals(27,hb.size());
+		assertException(IllegalArgumentException.class, () -> hb.addRun(0,0,0,Terrain.LAND));
+		assertException(IllegalArgumentException.class, () -> hb.addRun(Integer.MAX_VALUE,0,2,Terrain.LAND));
+	}
+	
+	public void testJ2() {
+		assertTrue(hb.addRun(Integer.MAX_VALUE-1,0,2,Terrain.LAND));
+		assertTrue(hb.addRun(Integer.MIN_VALUE,1,2,Terrain.LAND));
+		assertEquals(2,hb.runCount());
+		preserveOrder = true;
+		testcol(hb,"hb",new HexTile(Terrain.LAND,h(Integer.MAX_VALUE-1,0)),new HexTile(Terrain.LAND,h(Integer.MAX_VALUE,0)),
+				new HexTile(Terrain.LAND,h(Integer.MIN_VALUE,1)),new HexTile(Terrain.LAND,h(Integer.MIN_VALUE+1,1)));
+		it = hb.iterator();
+		it.next();
+		it.next();
+		it.remove();
+		assertEquals(new HexTile(Terrain.LAND,h(Integer.MIN_VALUE,1)),it.next());
+		it.remove();
+		assertEquals(2,hb.size());
+		assertEquals(2,hb.runCount());
+	}
+	
+	public void testK2() {
+		hb.addRun(0,0,10,Terrain.WATER);
+		hb.addRun(0,1,10,Terrain.LAND);
+		it = hb.iterator();
+		for (int i=0; i < 20; ++i) {
+			HexTile t = it.next();
+			assertEquals(i%10,t.getLocation().a());
+			if (i % 3 == 0) it.remove();
+		}
+		assertFalse(it.hasNext());
+		assertEquals(13,hb.size());
+		assertEquals(7,hb.runCount());
+	}
+}
@@ -0,0 +1,336 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * An implementation of the HexBoard ADT that may be used by several
+ * threads at once without locking.
+ * Like {@link HexBoard}, this is a collection of hex tiles except that
+ * there can never be two tiles at the same location, and the tiles are
+ * kept in the same order (by rows, then by position within a row).
+ * <p>
+ * The tiles are kept in a concurrent skip list keyed by packed locations,
+ * which gives the order.  Lookups use a second index: the locations are
+ * spread over a fixed number of stripes, each a small hash table
+ * of primitive keys and terrain codes (as in {@link HashHexBoard})
+ * guarded by its own lock.  Looking up a terrain reads its stripe
+ * optimistically, without locking or creating any objects, and only waits
+ * if a change to the same stripe is in progress.  Adding or removing a tile
+ * changes both structures while holding the lock for its stripe, so it
+ * only contends with changes in the same stripe.
+ * Iterators are weakly consistent: they never throw
+ * {@link java.util.ConcurrentModificationException}, and they see every tile
+ * that was on the board when they were created and not removed since,
+ * and may (or may not) see later changes.
+ * The size is kept separately from the tiles, so while other threads are
+ * changing the board it is only an estimate.
+ */
+public class ConcurrentHexBoard extends AbstractCollection<HexTile> {
+
+	private static final byte EMPTY = 0;
+	private static final byte REMOVED = -1;
+	// otherwise a stripe slot holds a terrain: ordinal + 1
+
+	private static final Terrain[] TERRAINS = Terrain.values();
+	private static final int STRIPE_BITS = 6;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final ConcurrentSkipListMap<Long,Terrain> tiles = new ConcurrentSkipListMap<>();
+	private final Stripe[] stripes = new Stripe[1 << STRIPE_BITS];
+	private final LongAdder size = new LongAdder();
+
+	/**
+	 * One part of the lookup index: an open-addressing hash table
+	 * for the locations whose hash has the stripe's top bits.
+	 * The arrays are only changed while holding the write lock.
+	 */
+	private static final class Stripe {
+		final StampedLock lock = new StampedLock();
+		long[] keys = new long[INITIAL_CAPACITY];
+		byte[] terrains = new byte[INITIAL_CAPACITY];
+		int count, removed; // tiles and REMOVED slots
+
+		/**
+		 * Return the code for the key's terrain, or EMPTY if none.
+		 * This may be called without a lock, while the table is changing:
+		 * it never fails or loops forever, but then the result is only
+		 * meaningful if the lock is validated afterwards.
+		 * @param key packed location
+		 * @return terrain code, or EMPTY
+		 */
+		byte get(long key) {
+			long[] ks = keys;
+			byte[] ts = terrains;
+			int n = ks.length;
+			if (ts.length != n) return EMPTY; // being rehashed
+			for (int j=0, i=home(key,n); j < n; ++j, i = (i+1) & (n-1)) {
+				byte t = ts[i];
+				if (t == EMPTY) break;
+				if (t > 0 && ks[i] == key) return t;
+			}
+			return EMPTY;
+		}
+
+		/**
+		 * Set the terrain code for a key.  Requires the write lock.
+		 * @param key packed location
+		 * @param code terrain code (positive)
+		 * @return previous code, or EMPTY if none
+		 */
+		byte put(long key, byte code) {
+			int n = keys.length, avail = -1;
+			for (int i=home(key,n); ; i = (i+1) & (n-1)) {
+				byte t = terrains[i];
+				if (t == EMPTY) {
+					if (avail < 0) avail = i;
+					break;
+				}
+				if (t == REMOVED) {
+					if (avail < 0) avail = i;
+				} else if (keys[i] == key) {
+					terrains[i] = code;
+					return t;
+				}
+			}
+			if (terrains[avail] == REMOVED) --removed;
+			keys[avail] = key;
+			terrains[avail] = code;
+			++count;
+			if (2*(count+removed) > n) rehash();
+			return EMPTY;
+		}
+
+		/**
+		 * Remove the key if it has the given terrain code.
+		 * Requires the write lock.
+		 * @param key packed location
+		 * @param code terrain code the tile must have
+		 * @return whether the key was removed
+		 */
+		boolean remove(long key, byte code) {
+			int n = keys.length;
+			for (int i=home(key,n); ; i = (i+1) & (n-1)) {
+				byte t = terrains[i];
+				if (t == EMPTY) return false;
+				if (t > 0 && keys[i] == key) {
+					if (t != code) return false;
+					terrains[i] = REMOVED;
+					++removed;
+					--count;
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Move the keys into new arrays without removal markers.
+		 * Readers may still be using the old arrays, so they are not changed.
+		 */
+		private void rehash() {
+			int n = INITIAL_CAPACITY;
+			while (n < 4*count) n *= 2;
+			long[] ks = new long[n];
+			byte[] ts = new byte[n];
+			for (int j=0; j < keys.length; ++j) {
+				if (terrains[j] > 0) {
+					int i = home(keys[j],n);
+					while (ts[i] != EMPTY) i = (i+1) & (n-1);
+					ks[i] = keys[j];
+					ts[i] = terrains[j];
+				}
+			}
+			keys = ks;
+			terrains = ts;
+			removed = 0;
+		}
+	}
+
+	/**
+	 * Return the slot where a key's search starts in a stripe.
+	 * The stripe is chosen by the top bits of the hash, the slot by the bottom.
+	 * @param key packed location
+	 * @param length length of the table (a power of two)
+	 * @return starting index for the key
+	 */
+	private static int home(long key, int length) {
+		return HexKeys.hash(key) & (length-1);
+	}
+
+	private Stripe stripeOf(long key) {
+		return stripes[HexKeys.hash(key) >>> (Integer.SIZE - STRIPE_BITS)];
+	}
+
+	/**
+	 * Create an empty hex board.
+	 */
+	public ConcurrentHexBoard() {
+		for (int i=0; i < stripes.length; ++i) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(int a, int b) {
+		long key = HexKeys.key(a,b);
+		Stripe s = stripeOf(key);
+		long stamp = s.lock.tryOptimisticRead();
+		byte t = s.get(key);
+		if (!s.lock.validate(stamp)) {
+			stamp = s.lock.readLock();
+			try {
+				t = s.get(key);
+			} finally {
+				s.lock.unlockRead(stamp);
+			}
+		}
+		return t == EMPTY ? null : TERRAINS[t-1];
+	}
+
+	/** Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param l hex coordinate to look for (null OK but pointless)
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate l) {
+		if (l == null) return null;
+		return terrainAt(l.a(),l.b());
+	}
+
+	@Override // required by Java
+	public int size() {
+		return (int)Math.max(0,Math.min(size.sum(),Integer.MAX_VALUE));
+	}
+
+	@Override // more efficient
+	public boolean isEmpty() {
+		return tiles.isEmpty();
+	}
+
+	@Override // required for efficiency
+	public boolean contains(Object o) {
+		if (o instanceof HexTile) {
+			HexTile h = (HexTile)o;
+			return terrainAt(h.getLocation()) == h.getTerrain();
+		}
+		return false;
+	}
+
+	@Override // required for correctness
+	public boolean add(HexTile e) {
+		Terrain t = e.getTerrain();
+		long key = HexKeys.key(e.getLocation());
+		byte code = (byte)(t.ordinal() + 1);
+		Stripe s = stripeOf(key);
+		long stamp = s.lock.writeLock();
+		try {
+			byte old = s.put(key,code);
+			if (old == code) return false;
+			tiles.put(key,t);
+			if (old == EMPTY) size.increment();
+			return true;
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	@Override // more efficient
+	public boolean remove(Object o) {
+		if (!(o instanceof HexTile)) return false;
+		HexTile h = (HexTile)o;
+		return removeAt(HexKeys.key(h.getLocation()),h.getTerrain());
+	}
+
+	/**
+	 * Remove the tile at a location if it (still) has the given terrain.
+	 * @param key packed location
+	 * @param t terrain the tile must have
+	 * @return whether a tile was removed
+	 */
+	private boolean removeAt(long key, Terrain t) {
+		if (t == null) return false;
+		Stripe s = stripeOf(key);
+		long stamp = s.lock.writeLock();
+		try {
+			if (!s.remove(key,(byte)(t.ordinal() + 1))) return false;
+			tiles.remove(key);
+			size.decrement();
+			return true;
+		} finally {
+			s.lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Tiles added by other threads while clearing may remain.
+	 */
+	@Override // more efficient
+	public void clear() {
+		for (Map.Entry<Long,Terrain> e : tiles.entrySet()) {
+			removeAt(e.getKey(),e.getValue());
+		}
+	}
+
+	/**
+	 * Visit every tile in this board, in order, with the same
+	 * weak consistency as the iterator.
+	 * The visitor may change the board.
+	 * @param v visitor to call for each tile, must not be null
+	 */
+	public void forEachTile(HexBoard.TileVisitor v) {
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		for (Map.Entry<Long,Terrain> e : tiles.entrySet()) {
+			long key = e.getKey();
+			v.visit(HexKeys.a(key),HexKeys.b(key),e.getValue());
+		}
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		return new MyIterator();
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private final Iterator<Map.Entry<Long,Terrain>> entries = tiles.entrySet().iterator();
+		private long lastKey;
+		private Terrain lastTerrain; // of tile that can be removed, or null
+
+		@Override // required by Java
+		public boolean hasNext() {
+			return entries.hasNext();
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("iteration has no more elements");
+			Map.Entry<Long,Terrain> e = entries.next();
+			lastKey = e.getKey();
+			lastTerrain = e.getValue();
+			return new HexTile(lastTerrain,HexKeys.coordinate(lastKey));
+		}
+
+		/**
+		 * {@inheritDoc}
+		 * If another thread has changed the terrain at the tile's location
+		 * since the tile was returned, nothing is removed.
+		 */
+		@Override // required for functionality
+		public void remove() {
+			if (lastTerrain == null) throw new IllegalStateException("nothing to remove");
+			removeAt(lastKey,lastTerrain);
+			lastTerrain = null;
+		}
+	}
+}
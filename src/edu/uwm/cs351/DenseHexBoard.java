@@ -0,0 +1,323 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of the HexBoard ADT for a bounded region using
+ * arrays of terrain codes.
+ * Like {@link HexBoard}, this is a collection of hex tiles except that
+ * there can never be two tiles at the same location, and the tiles are
+ * kept in the same order (by rows, then by position within a row).
+ * But every tile must be within the bounds given when the board is created.
+ * <p>
+ * The region is divided into square chunks of cells, each of which
+ * holds one byte: zero for no tile, or the terrain's ordinal plus one.
+ * Chunks are allocated only when a tile is first added to them,
+ * and are let go when they become empty.  Looking up, adding and removing
+ * tiles takes constant time, and a densely filled board uses
+ * little more than a byte per tile.
+ */
+public class DenseHexBoard extends AbstractCollection<HexTile> {
+
+	private static final int SHIFT = 5;
+	private static final int CHUNK = 1 << SHIFT; // cells on a side of a chunk
+	private static final int MASK = CHUNK - 1;
+	private static final byte EMPTY = 0;
+	private static final Terrain[] TERRAINS = Terrain.values();
+
+	private final int minA, minB; // coordinates of the first cell
+	private final int columns, rows; // size of region
+	private final int chunkColumns; // number of chunks across the region
+	private final byte[][] chunks; // each null, or CHUNK*CHUNK cells
+	private final int[] counts; // number of tiles in each chunk
+	private int size;
+	private int version;
+
+	private static boolean doReport = true;
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		else System.out.println("Detected invariant error: " + s);
+		return false;
+	}
+
+	private boolean wellFormed() {
+		int total = 0;
+		for (int c=0; c < chunks.length; ++c) {
+			byte[] chunk = chunks[c];
+			if (chunk == null) {
+				if (counts[c] != 0) return report("count " + counts[c] + " for missing chunk " + c);
+				continue;
+			}
+			if (chunk.length != CHUNK*CHUNK) return report("chunk " + c + " has wrong length " + chunk.length);
+			int count = 0;
+			for (int i=0; i < chunk.length; ++i) {
+				if (chunk[i] == EMPTY) continue;
+				if (chunk[i] < 0 || chunk[i] > TERRAINS.length) return report("bad terrain code " + chunk[i] + " in chunk " + c);
+				int a = (c % chunkColumns << SHIFT) + (i & MASK);
+				int b = (c / chunkColumns << SHIFT) + (i >> SHIFT);
+				if (a >= columns || b >= rows) return report("tile outside of region in chunk " + c);
+				++count;
+			}
+			if (count == 0) return report("empty chunk " + c + " not let go");
+			if (count != counts[c]) return report("count for chunk " + c + " is " + counts[c] + ", should be " + count);
+			total += count;
+		}
+		if (total != size) return report("size " + size + " wrong, should be " + total);
+		return true;
+	}
+
+	/**
+	 * Create an empty hex board for the given region.
+	 * @param minA smallest first coordinate permitted
+	 * @param minB smallest second coordinate permitted
+	 * @param columns number of first coordinates permitted, must be positive
+	 * @param rows number of second coordinates permitted, must be positive
+	 * @exception IllegalArgumentException if the region is empty or too large
+	 */
+	public DenseHexBoard(int minA, int minB, int columns, int rows) {
+		if (columns <= 0 || rows <= 0) throw new IllegalArgumentException("region must not be empty: " + columns + " x " + rows);
+		if ((long)minA + columns - 1 > Integer.MAX_VALUE || (long)minB + rows - 1 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("region goes past the largest coordinate");
+		}
+		this.minA = minA;
+		this.minB = minB;
+		this.columns = columns;
+		this.rows = rows;
+		chunkColumns = (columns + MASK) >> SHIFT;
+		long numChunks = (long)chunkColumns * ((rows + MASK) >> SHIFT);
+		if (numChunks > Integer.MAX_VALUE) throw new IllegalArgumentException("region too large: " + columns + " x " + rows);
+		chunks = new byte[(int)numChunks][];
+		counts = new int[(int)numChunks];
+		assert wellFormed() : "in constructor";
+	}
+
+	/**
+	 * Return the chunk index for a position in the region.
+	 * @param x offset of first coordinate from minA, in range
+	 * @param y offset of second coordinate from minB, in range
+	 * @return index into chunks
+	 */
+	private int chunkOf(int x, int y) {
+		return (y >> SHIFT) * chunkColumns + (x >> SHIFT);
+	}
+
+	/**
+	 * Return the cell index within a chunk for a position in the region.
+	 * @param x offset of first coordinate from minA, in range
+	 * @param y offset of second coordinate from minB, in range
+	 * @return index into a chunk
+	 */
+	private static int cellOf(int x, int y) {
+		return ((y & MASK) << SHIFT) | (x & MASK);
+	}
+
+	/**
+	 * Return whether the given location is in the region of this board.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return whether a tile may be put at this location
+	 */
+	public boolean inRegion(int a, int b) {
+		return a - (long)minA >= 0 && a - (long)minA < columns && b - (long)minB >= 0 && b - (long)minB < rows;
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return terrain at that coordinate, or null if nothing (or outside the region)
+	 */
+	public Terrain terrainAt(int a, int b) {
+		if (!inRegion(a,b)) return null;
+		int x = a - minA, y = b - minB;
+		byte[] chunk = chunks[chunkOf(x,y)];
+		if (chunk == null) return null;
+		byte code = chunk[cellOf(x,y)];
+		return code == EMPTY ? null : TERRAINS[code-1];
+	}
+
+	/** Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param l hex coordinate to look for (null OK but pointless)
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate l) {
+		assert wellFormed() : "in terrainAt";
+		if (l == null) return null;
+		return terrainAt(l.a(),l.b());
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return size;
+	}
+
+	@Override // required for efficiency
+	public boolean contains(Object o) {
+		assert wellFormed() : "in contains()";
+		if (o instanceof HexTile) {
+			HexTile h = (HexTile)o;
+			return terrainAt(h.getLocation()) == h.getTerrain();
+		}
+		return false;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @exception IllegalArgumentException if the tile is outside the region
+	 */
+	@Override // required for correctness
+	public boolean add(HexTile e) {
+		assert wellFormed() : "in add()";
+		HexCoordinate l = e.getLocation();
+		if (!inRegion(l.a(),l.b())) throw new IllegalArgumentException(e + " is outside of region");
+		int x = l.a() - minA, y = l.b() - minB;
+		int c = chunkOf(x,y);
+		byte[] chunk = chunks[c];
+		if (chunk == null) chunk = chunks[c] = new byte[CHUNK*CHUNK];
+		int i = cellOf(x,y);
+		byte code = (byte)(e.getTerrain().ordinal() + 1);
+		if (chunk[i] == code) return false;
+		if (chunk[i] == EMPTY) {
+			++counts[c];
+			++size;
+		}
+		chunk[i] = code;
+		++version;
+		assert wellFormed() : "after add()";
+		return true;
+	}
+
+	@Override // more efficient
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove()";
+		if (!(o instanceof HexTile)) return false;
+		HexTile h = (HexTile)o;
+		HexCoordinate l = h.getLocation();
+		if (terrainAt(l) != h.getTerrain()) return false;
+		int x = l.a() - minA, y = l.b() - minB;
+		removeCell(chunkOf(x,y),cellOf(x,y));
+		assert wellFormed() : "after remove()";
+		return true;
+	}
+
+	private void removeCell(int c, int i) {
+		chunks[c][i] = EMPTY;
+		if (--counts[c] == 0) chunks[c] = null;
+		--size;
+		++version;
+	}
+
+	@Override // more efficient
+	public void clear() {
+		if (size > 0) {
+			for (int c=0; c < chunks.length; ++c) {
+				chunks[c] = null;
+				counts[c] = 0;
+			}
+			size = 0;
+			++version;
+		}
+	}
+
+	/**
+	 * Visit every tile in this board, in order.
+	 * The visitor must not modify the board.
+	 * @param v visitor to call for each tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 */
+	public void forEachTile(HexBoard.TileVisitor v) {
+		assert wellFormed() : "in forEachTile";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		int myVersion = version;
+		for (int y=0; y < rows; ++y) {
+			int base = (y >> SHIFT) * chunkColumns;
+			int rowStart = (y & MASK) << SHIFT;
+			for (int cx=0; cx < chunkColumns; ++cx) {
+				byte[] chunk = chunks[base + cx];
+				if (chunk == null) continue;
+				for (int i=0; i < CHUNK; ++i) {
+					byte code = chunk[rowStart + i];
+					if (code == EMPTY) continue;
+					v.visit(minA + (cx << SHIFT) + i, minB + y, TERRAINS[code-1]);
+					if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+				}
+			}
+		}
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		// positions are offsets from (minA,minB), rows + 0 means done
+		private int nextX, nextY;
+		private int currentX = -1, currentY; // tile that can be removed, if currentX >= 0
+		private int myVersion = version;
+
+		private MyIterator() {
+			nextX = -1;
+			advance();
+		}
+
+		/**
+		 * Move to the next tile after (nextX,nextY), skipping missing chunks.
+		 */
+		private void advance() {
+			int x = nextX + 1, y = nextY;
+			while (y < rows) {
+				if (x >= columns) {
+					x = 0;
+					++y;
+					continue;
+				}
+				byte[] chunk = chunks[chunkOf(x,y)];
+				if (chunk == null) {
+					x = (x | MASK) + 1; // skip to the next chunk
+					continue;
+				}
+				if (chunk[cellOf(x,y)] != EMPTY) break;
+				++x;
+			}
+			nextX = x;
+			nextY = y;
+		}
+
+		private void checkVersion() {
+			if (myVersion != version) throw new ConcurrentModificationException("iterator version does not match collection version");
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			checkVersion();
+			return nextY < rows;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("iteration has no more elements");
+			currentX = nextX;
+			currentY = nextY;
+			advance();
+			byte code = chunks[chunkOf(currentX,currentY)][cellOf(currentX,currentY)];
+			return new HexTile(TERRAINS[code-1],new HexCoordinate(minA + currentX, minB + currentY));
+		}
+
+		@Override // required for functionality
+		public void remove() {
+			checkVersion();
+			if (currentX < 0) throw new IllegalStateException("nothing to remove");
+			removeCell(chunkOf(currentX,currentY),cellOf(currentX,currentY));
+			currentX = -1;
+			myVersion = version;
+		}
+	}
+}
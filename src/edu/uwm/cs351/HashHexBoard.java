@@ -0,0 +1,294 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of the HexBoard ADT using
+ * a hash table with open addressing.
+ * Like {@link HexBoard}, this is a collection of hex tiles except that
+ * there can never be two tiles at the same location,
+ * but the tiles are not kept in any particular order.
+ * Instead, looking up and adding tiles takes expected constant time.
+ * <p>
+ * Each location is packed into a long key, and each terrain is stored
+ * as a byte, so no objects are kept per tile.  Removed tiles leave a marker
+ * behind (so that iterators and other searches aren't disturbed),
+ * and the markers are cleaned out when the table is rehashed.
+ */
+public class HashHexBoard extends AbstractCollection<HexTile> {
+
+	private static final byte EMPTY = 0;
+	private static final byte REMOVED = -1;
+	// otherwise the slot holds a terrain: ordinal + 1
+
+	private static final Terrain[] TERRAINS = Terrain.values();
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] keys;
+	private byte[] terrains;
+	private int size;
+	private int removed; // number of REMOVED slots
+	private int version;
+
+	private static boolean doReport = true;
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		else System.out.println("Detected invariant error: " + s);
+		return false;
+	}
+
+	/**
+	 * Return the slot where a key's search starts.
+	 * @param key packed location
+	 * @param length length of the table (a power of two)
+	 * @return starting index for the key
+	 */
+	private static int home(long key, int length) {
+		return HexKeys.hash(key) & (length-1);
+	}
+
+	private boolean wellFormed() {
+		int n = keys.length;
+		if (n < INITIAL_CAPACITY || Integer.bitCount(n) != 1) return report("capacity " + n + " is not a power of two");
+		if (terrains.length != n) return report("terrains length " + terrains.length + " != " + n);
+		int count = 0, markers = 0;
+		for (int i=0; i < n; ++i) {
+			byte t = terrains[i];
+			if (t == EMPTY) continue;
+			if (t == REMOVED) {
+				++markers;
+				continue;
+			}
+			if (t < 0 || t > TERRAINS.length) return report("bad terrain code " + t + " at " + i);
+			++count;
+			// the search for the key must reach this slot, and no other
+			for (int j = home(keys[i],n); j != i; j = (j+1) & (n-1)) {
+				if (terrains[j] == EMPTY) return report("key at " + i + " can't be found");
+				if (terrains[j] > 0 && keys[j] == keys[i]) return report("duplicate key at " + j + " and " + i);
+			}
+		}
+		if (count != size) return report("size " + size + " wrong, should be " + count);
+		if (markers != removed) return report("removed " + removed + " wrong, should be " + markers);
+		if (2*(size+removed) > n) return report("table too full: " + (size+removed) + " of " + n);
+		return true;
+	}
+
+	/**
+	 * Create an empty hex board.
+	 */
+	public HashHexBoard() {
+		keys = new long[INITIAL_CAPACITY];
+		terrains = new byte[INITIAL_CAPACITY];
+		assert wellFormed() : "in constructor";
+	}
+
+	/**
+	 * Return the slot for the key, or if it isn't present,
+	 * a negative number that encodes where it could be added:
+	 * -1 minus the index.
+	 * @param key packed location
+	 * @return slot of key, or -1 - slot where it may be added
+	 */
+	private int find(long key) {
+		int mask = keys.length-1;
+		int avail = -1;
+		for (int i = home(key,keys.length); ; i = (i+1) & mask) {
+			byte t = terrains[i];
+			if (t == EMPTY) return -1 - (avail >= 0 ? avail : i);
+			if (t == REMOVED) {
+				if (avail < 0) avail = i;
+			} else if (keys[i] == key) return i;
+		}
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(int a, int b) {
+		int i = find(HexKeys.key(a,b));
+		if (i < 0) return null;
+		return TERRAINS[terrains[i]-1];
+	}
+
+	/** Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param l hex coordinate to look for (null OK but pointless)
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate l) {
+		assert wellFormed() : "in terrainAt";
+		if (l == null) return null;
+		return terrainAt(l.a(),l.b());
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return size;
+	}
+
+	@Override // required for efficiency
+	public boolean contains(Object o) {
+		assert wellFormed() : "in contains()";
+		if (o instanceof HexTile) {
+			HexTile h = (HexTile)o;
+			return terrainAt(h.getLocation()) == h.getTerrain();
+		}
+		return false;
+	}
+
+	@Override // required for correctness
+	public boolean add(HexTile e) {
+		assert wellFormed() : "in add()";
+		long key = HexKeys.key(e.getLocation());
+		byte code = (byte)(e.getTerrain().ordinal() + 1);
+		int i = find(key);
+		if (i >= 0) {
+			if (terrains[i] == code) return false;
+			terrains[i] = code;
+		} else {
+			i = -1 - i;
+			if (terrains[i] == REMOVED) --removed;
+			keys[i] = key;
+			terrains[i] = code;
+			++size;
+			if (2*(size+removed) > keys.length) rehash();
+		}
+		++version;
+		assert wellFormed() : "after add()";
+		return true;
+	}
+
+	/**
+	 * Move the tiles into a new table, without removal markers,
+	 * and twice as large as needed for the current tiles.
+	 */
+	private void rehash() {
+		int n = INITIAL_CAPACITY;
+		while (n < 4*size) n *= 2;
+		long[] oldKeys = keys;
+		byte[] oldTerrains = terrains;
+		keys = new long[n];
+		terrains = new byte[n];
+		for (int j=0; j < oldKeys.length; ++j) {
+			if (oldTerrains[j] > 0) {
+				int i = home(oldKeys[j],n);
+				while (terrains[i] != EMPTY) i = (i+1) & (n-1);
+				keys[i] = oldKeys[j];
+				terrains[i] = oldTerrains[j];
+			}
+		}
+		removed = 0;
+	}
+
+	@Override // more efficient
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove()";
+		if (!(o instanceof HexTile)) return false;
+		HexTile h = (HexTile)o;
+		int i = find(HexKeys.key(h.getLocation()));
+		if (i < 0 || terrains[i] != h.getTerrain().ordinal() + 1) return false;
+		removeSlot(i);
+		assert wellFormed() : "after remove()";
+		return true;
+	}
+
+	private void removeSlot(int i) {
+		terrains[i] = REMOVED;
+		++removed;
+		--size;
+		++version;
+	}
+
+	@Override // more efficient
+	public void clear() {
+		if (size > 0 || removed > 0) {
+			if (keys.length > INITIAL_CAPACITY) {
+				keys = new long[INITIAL_CAPACITY];
+				terrains = new byte[INITIAL_CAPACITY];
+			} else {
+				Arrays.fill(terrains,EMPTY);
+			}
+			size = 0;
+			removed = 0;
+			++version;
+		}
+	}
+
+	/**
+	 * Visit every tile in this board, in no particular order.
+	 * The visitor must not modify the board.
+	 * @param v visitor to call for each tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 */
+	public void forEachTile(HexBoard.TileVisitor v) {
+		assert wellFormed() : "in forEachTile";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		int myVersion = version;
+		long[] ks = keys;
+		byte[] ts = terrains;
+		for (int i=0; i < ks.length; ++i) {
+			if (ts[i] > 0) {
+				v.visit(HexKeys.a(ks[i]),HexKeys.b(ks[i]),TERRAINS[ts[i]-1]);
+				if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+			}
+		}
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		// the table doesn't change while we are valid (removal leaves a marker)
+		private int next; // index of next tile, or length if none
+		private int current = -1; // index of tile that can be removed, or -1
+		private int myVersion = version;
+
+		private MyIterator() {
+			next = advance(0);
+		}
+
+		private int advance(int i) {
+			while (i < terrains.length && terrains[i] <= 0) ++i;
+			return i;
+		}
+
+		private void checkVersion() {
+			if (myVersion != version) throw new ConcurrentModificationException("iterator version does not match collection version");
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			checkVersion();
+			return next < terrains.length;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("iteration has no more elements");
+			current = next;
+			next = advance(next+1);
+			return new HexTile(TERRAINS[terrains[current]-1],HexKeys.coordinate(keys[current]));
+		}
+
+		@Override // required for functionality
+		public void remove() {
+			checkVersion();
+			if (current < 0) throw new IllegalStateException("nothing to remove");
+			removeSlot(current);
+			current = -1;
+			myVersion = version;
+		}
+	}
+}
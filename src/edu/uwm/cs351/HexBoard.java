@@ -1,10 +1,26 @@
 package edu.uwm.cs351;
 
+import java.awt.Rectangle;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
+import java.util.EmptyStackException;
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
-import java.util.Stack;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import junit.framework.TestCase;
 
@@ -13,27 +29,100 @@ import junit.framework.TestCase;
  * a binary search tree implementation.
  * A hex board is a collection of hex tiles except that there can 
  * never be two tiles at the same location. 
+ * <p>
+ * The tree is kept balanced as a scapegoat tree: no balance information
+ * is stored in the nodes; instead, an insertion that lands too deep causes
+ * the smallest unbalanced subtree on its path to be rebuilt perfectly
+ * balanced, and removals that shrink the board too far rebuild
+ * the whole tree.  Thus adding tiles in sorted (row-major) order is as
+ * fast as adding them in random order.
+ * <p>
+ * Nodes may be shared between boards: {@link #snapshot()} and the copy
+ * constructor take constant time, and afterwards each board copies a node
+ * (and the path above it) before changing it.  Each node records which
+ * board (if any) may still change it in place.
+ * <p>
+ * Each node also keeps the number of tiles of each terrain in its subtree,
+ * so the tiles of a terrain in any range of locations (such as a band of rows)
+ * can be counted in logarithmic time without visiting them.
+ * The sum of these counts is the size of the subtree, which lets tiles
+ * be found by their position in order (or at random) in logarithmic time.
  */
 //Kevin Schmidt HW 9
 public class HexBoard extends AbstractCollection<HexTile> {
 
 	private static int compare(HexCoordinate h1, HexCoordinate h2) {
 		if (h1.b() == h2.b()) {
-			return h1.a() - h2.a();
+			return Integer.compare(h1.a(),h2.a()); // subtraction could overflow
 		}
-		return h1.b() - h2.b();
+		return Integer.compare(h1.b(),h2.b());
 	}
 	
 	private static class Node {
 		HexCoordinate loc;
 		Terrain terrain;
 		Node left, right;
+		HexTile tile; // cached tile for loc and terrain, or null
+		Object owner; // edit token of the board that may change this node, or null
+		int[] counts; // tiles of each terrain (by ordinal) in this subtree, or null if not known
 		Node(HexCoordinate l, Terrain t) { loc = l; terrain = t; }
 	}
 	
+	/**
+	 * A stack of nodes in a growable array.
+	 * Unlike {@link java.util.Stack}, it is not synchronized
+	 * and doesn't allocate anything unless it needs to grow.
+	 */
+	private static class NodeStack {
+		private Node[] data;
+		private int top;
+		
+		NodeStack(int capacity) { data = new Node[Math.max(capacity,1)]; }
+		
+		boolean isEmpty() { return top == 0; }
+		int size() { return top; }
+		Node get(int i) { return data[i]; }
+		Node peek() { return data[top-1]; }
+		
+		void push(Node n) {
+			if (top == data.length) data = Arrays.copyOf(data, top*2);
+			data[top++] = n;
+		}
+		
+		Node pop() {
+			if (top == 0) throw new EmptyStackException();
+			Node result = data[--top];
+			data[top] = null;
+			return result;
+		}
+		
+		void set(int i, Node n) { data[i] = n; }
+		
+		void clear() {
+			Arrays.fill(data,0,top,null);
+			top = 0;
+		}
+	}
+	
 	private Node root;
 	private int size;
 	private int version;
+	private int maxSize; // largest size since the last full rebuild
+	private boolean cacheTiles;
+	private Object edit = new Object(); // owner of nodes we may change, null if immutable
+	private Journal journal; // null if not journaling
+	
+	/**
+	 * The scapegoat balance factor is 2/3: a subtree is unbalanced
+	 * if one of its children has more than 2/3 of its nodes.
+	 * So no node may be deeper than log base 3/2 of the (max) size.
+	 * @param n number of nodes (max size)
+	 * @return the deepest allowable depth (root is at depth 0)
+	 */
+	private static int depthLimit(int n) {
+		return (int)(Math.log(n)/LOG_3_2);
+	}
+	private static final double LOG_3_2 = Math.log(1.5);
 	
 	private static boolean doReport = true; 
 	private static boolean report(String s) {
@@ -43,215 +132,2016 @@ public class HexBoard extends AbstractCollection<HexTile> {
 	}
 	
 	/**
-	 * Return true if the nodes in this BST are properly
-	 * ordered with respect to the {@link #compare(HexCoordinate, HexCoordinate)}
-	 * method.  If a problem is found, it should be reported (once).
-	 * @param r subtree to check (may be null)
-	 * @param lo lower bound (if any)
-	 * @param hi upper bound (if any)
-	 * @return whether there are any problems in the tree.
+	 * Return true if the nodes in this BST are properly
+	 * ordered with respect to the {@link #compare(HexCoordinate, HexCoordinate)}
+	 * method.  If a problem is found, it should be reported (once).
+	 * @param r subtree to check (may be null)
+	 * @param lo lower bound (if any)
+	 * @param hi upper bound (if any)
+	 * @return whether there are any problems in the tree.
+	 */
+	private static boolean isInProperOrder(Node r, HexCoordinate lo, HexCoordinate hi) {
+		if (r == null) return true;
+		if (r.loc == null) return report("null location in tree");
+		if (r.terrain == null) return report("null terrain for " + r.loc);
+		if (r.tile != null && (r.tile.getLocation() != r.loc || r.tile.getTerrain() != r.terrain)) 
+			return report("stale cached tile " + r.tile + " for " + r.terrain + r.loc);
+		if (lo != null && compare(lo,r.loc) >= 0) return report("out of order " + r.loc + " <= " + lo);
+		if (hi != null && compare(hi,r.loc) <= 0) return report("out of order " + r.loc + " >= " + hi);
+		return isInProperOrder(r.left,lo,r.loc) && isInProperOrder(r.right,r.loc,hi);
+	}
+	
+	/**
+	 * Return the count of the nodes in this subtree.
+	 * @param p subtree to count nodes for (may be null)
+	 * @return number of nodes in the subtree.
+	 */
+	private static int countNodes(Node p) {
+		if (p == null) return 0;
+		return 1 + countNodes(p.left) + countNodes(p.right);
+	}
+	
+	/**
+	 * Return the number of nodes in a subtree, using the terrain counts
+	 * if the root of the subtree knows them.
+	 * @param p subtree, may be null
+	 * @return number of nodes in the subtree
+	 */
+	private static int sizeOf(Node p) {
+		if (p == null) return 0;
+		if (p.counts == null) return countNodes(p);
+		int n = 0;
+		for (int c : p.counts) n += c;
+		return n;
+	}
+	
+	/**
+	 * Return the number of nodes in a subtree before a location.
+	 * @param r subtree, may be null
+	 * @param l location to stop before, or null to count all the nodes
+	 * @return number of nodes in the subtree before l
+	 */
+	private static int sizeBefore(Node r, HexCoordinate l) {
+		if (l == null) return sizeOf(r);
+		int n = 0;
+		while (r != null) {
+			if (compare(r.loc,l) < 0) {
+				n += sizeOf(r.left) + 1;
+				r = r.right;
+			} else r = r.left;
+		}
+		return n;
+	}
+	
+	/**
+	 * Return true if no node in the subtree that this board may change
+	 * is below one it may not, since changing a node requires 
+	 * changing the path to it.
+	 * @param r subtree to check (may be null)
+	 * @param shared whether the parent of r is shared
+	 * @return whether there are any problems in the subtree
+	 */
+	private boolean isOwnershipClosed(Node r, boolean shared) {
+		for (; r != null; r = r.right) {
+			if (shared && owns(r)) return report("node " + r.loc + " may be changed, but its parent is shared");
+			shared = !owns(r);
+			if (!isOwnershipClosed(r.left,shared)) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Return true if every terrain count kept in a subtree is correct.
+	 * Nodes that don't know their counts are not checked.
+	 * @param r subtree to check (may be null)
+	 * @param counts array to add the counts of the subtree to
+	 * @return whether there are any problems in the subtree
+	 */
+	private static boolean areCountsCorrect(Node r, int[] counts) {
+		if (r == null) return true;
+		int[] mine = new int[TERRAINS.length];
+		++mine[r.terrain.ordinal()];
+		if (!areCountsCorrect(r.left,mine) || !areCountsCorrect(r.right,mine)) return false;
+		if (r.counts != null && !Arrays.equals(r.counts,mine)) 
+			return report("terrain counts " + Arrays.toString(r.counts) + " at " + r.loc + " should be " + Arrays.toString(mine));
+		for (int i=0; i < mine.length; ++i) counts[i] += mine[i];
+		return true;
+	}
+	
+	private boolean wellFormed() {
+		if (!isInProperOrder(root,null,null)) return false;
+		int count = countNodes(root);
+		if (size != count) return report("size " + size + " wrong, should be " + count);
+		if (!isOwnershipClosed(root,false)) return false;
+		if (!areCountsCorrect(root,new int[TERRAINS.length])) return false;
+		return true;
+	}
+	
+	/**
+	 * Create an empty hex board.
+	 */
+	public HexBoard() {
+		root = null;
+		size = 0;
+		assert wellFormed() : "in constructor";
+	}
+	
+	/**
+	 * Create a hex board with the given tiles.  If there are several
+	 * tiles at the same location, the last one is used.
+	 * If the tiles come from another hex board (or a snapshot), 
+	 * the new board shares its nodes with the other board, and so this 
+	 * takes constant time; either board copies nodes as needed when changed.
+	 * If the tiles are otherwise already in order, this takes linear time.
+	 * @param tiles collection of tiles, must not be null or include null
+	 */
+	public HexBoard(Collection<? extends HexTile> tiles) {
+		this();
+		if (tiles instanceof HexBoard) {
+			HexBoard other = (HexBoard)tiles;
+			root = other.root;
+			size = other.size;
+			maxSize = other.maxSize;
+			other.share();
+		} else addAll(tiles);
+		assert wellFormed() : "in copy constructor";
+	}
+	
+	/**
+	 * Return an immutable board with the same tiles as this one.
+	 * This takes constant time: the snapshot shares all the nodes of
+	 * this board, and this board copies nodes before changing them
+	 * from now on.  Every method that would change the snapshot throws
+	 * {@link UnsupportedOperationException}.  Since its nodes are never changed,
+	 * a snapshot may be read by several threads at once (once it has
+	 * been safely passed to them).  A changeable copy of a snapshot can
+	 * be made (also in constant time) with {@link #HexBoard(Collection)}.
+	 * @return immutable board with the current tiles of this board
+	 */
+	public HexBoard snapshot() {
+		assert wellFormed() : "in snapshot";
+		if (edit == null) return this;
+		HexBoard result = new HexBoard();
+		result.root = root;
+		result.size = size;
+		result.maxSize = maxSize;
+		result.edit = null;
+		share();
+		assert result.wellFormed() : "snapshot not well formed";
+		return result;
+	}
+	
+	/**
+	 * Return whether this board is an immutable snapshot.
+	 * @return whether this board cannot be changed
+	 * @see #snapshot()
+	 */
+	public boolean isSnapshot() {
+		return edit == null;
+	}
+	
+	/**
+	 * Stop changing any current nodes in place, because another board 
+	 * is now using them too.
+	 */
+	private void share() {
+		if (edit != null) edit = new Object();
+	}
+	
+	private void checkMutable() {
+		if (edit == null) throw new UnsupportedOperationException("snapshot cannot be changed");
+	}
+	
+	/**
+	 * Return whether this board may change the given node in place.
+	 * @param p node to check, must not be null
+	 * @return whether the node belongs only to this board
+	 */
+	private boolean owns(Node p) {
+		return p.owner == edit && edit != null;
+	}
+	
+	/**
+	 * Create a node that this board may change.
+	 * @param l location for the node
+	 * @param t terrain for the node
+	 * @return new node
+	 */
+	private Node newNode(HexCoordinate l, Terrain t) {
+		Node result = new Node(l,t);
+		result.owner = edit;
+		if (t != null) {
+			result.counts = new int[TERRAINS.length];
+			result.counts[t.ordinal()] = 1;
+		}
+		return result;
+	}
+	
+	/**
+	 * Return a node that this board may change with the same contents as
+	 * the given node: the node itself if this board owns it, or a copy.
+	 * The caller must link in a copy in place of the original.
+	 * @param p node to get or copy, must not be null
+	 * @return node owned by this board with the same contents
+	 */
+	private Node own(Node p) {
+		if (owns(p)) return p;
+		Node result = newNode(p.loc,p.terrain);
+		result.left = p.left;
+		result.right = p.right;
+		result.tile = p.tile;
+		result.counts = p.counts == null ? null : p.counts.clone();
+		return result;
+	}
+	
+	/**
+	 * Make sure this board owns every node on a path from the root,
+	 * copying shared nodes and linking the copies into the tree.
+	 * @param depth number of nodes in {@link #path}, starting from the root
+	 * @param p node below the last one in the path, or null
+	 * @return the node to use in place of p (null if p is null)
+	 */
+	private Node ownPath(int depth, Node p) {
+		Node parent = null;
+		for (int i=0; i <= depth; ++i) {
+			Node q = i < depth ? path[i] : p;
+			if (q == null) break;
+			Node c = own(q);
+			if (c != q) {
+				if (parent == null) root = c;
+				else if (parent.left == q) parent.left = c;
+				else parent.right = c;
+			}
+			if (i < depth) path[i] = c;
+			else p = c;
+			parent = c;
+		}
+		return p;
+	}
+	
+	/** Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param c hex coordinate to look for (null OK but pointless)
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate l) {
+		assert wellFormed() : "in terrainAt";
+		for (Node p = root; p != null; ) {
+			int c = compare(l,p.loc);
+			if (c == 0) return p.terrain;
+			if (c < 0) p = p.left;
+			else p = p.right;
+		}
+		return null;
+	}
+
+	/**
+	 * Set whether this board should remember the tiles it hands out
+	 * (from its iterators), so that the next time the same tile is needed,
+	 * no new tile is allocated.  This makes repeated traversals
+	 * allocation-free at the cost of extra memory per tile.
+	 * Caching is off by default.
+	 * @param cache whether to cache tiles
+	 */
+	public void setCacheTiles(boolean cache) {
+		cacheTiles = cache;
+	}
+	
+	/**
+	 * Return a tile for the given node, using (and perhaps setting)
+	 * the node's cached tile.
+	 * @param p node to get tile for, must not be null
+	 * @return tile with the location and terrain of the node
+	 */
+	private HexTile tileOf(Node p) {
+		if (p.tile != null) return p.tile;
+		HexTile result = new HexTile(p.terrain,p.loc);
+		if (cacheTiles && owns(p)) p.tile = result; // never write shared nodes
+		return result;
+	}
+
+	/**
+	 * A callback for visiting the tiles of a board without creating 
+	 * {@link HexTile} or {@link HexCoordinate} objects.
+	 */
+	@FunctionalInterface
+	public interface TileVisitor {
+		/**
+		 * Visit the tile at coordinate &lt;a,b,a-b&gt;.
+		 * @param a first coordinate of the tile
+		 * @param b second coordinate of the tile
+		 * @param t terrain of the tile, never null
+		 */
+		void visit(int a, int b, Terrain t);
+	}
+	
+	/**
+	 * Visit every tile in this board in the same order as the iterator.
+	 * The visitor must not modify the board.
+	 * @param v visitor to call for each tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 */
+	public void forEachTile(TileVisitor v) {
+		assert wellFormed() : "in forEachTile";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		forEachTile(root,v,version);
+	}
+	
+	private void forEachTile(Node r, TileVisitor v, int myVersion) {
+		while (r != null) {
+			forEachTile(r.left,v,myVersion);
+			v.visit(r.loc.a(),r.loc.b(),r.terrain);
+			if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+			r = r.right;
+		}
+	}
+
+	/**
+	 * Visit every tile within the given distance of a center, in the same order
+	 * as the iterator.  Only the rows that can be close enough and have tiles
+	 * are searched, and in each of them only the range of locations that are 
+	 * close enough, so the time taken depends on the number of tiles nearby,
+	 * not the size of the board or the distance.
+	 * The visitor must not modify the board.
+	 * @param center location to measure from, must not be null
+	 * @param k maximum distance (if negative, nothing is visited)
+	 * @param v visitor to call for each tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 * @see HexCoordinate#distance(HexCoordinate)
+	 */
+	public void forEachTileWithin(HexCoordinate center, int k, TileVisitor v) {
+		assert wellFormed() : "in forEachTileWithin";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		int myVersion = version;
+		visitWithin(center,k,(p) -> {
+			v.visit(p.loc.a(),p.loc.b(),p.terrain);
+			if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+		});
+	}
+	
+	/**
+	 * Return a new board with all the tiles within the given distance of a center.
+	 * As with {@link #forEachTileWithin(HexCoordinate, int, TileVisitor)},
+	 * the time taken depends on the number of tiles found.
+	 * @param center location to measure from, must not be null
+	 * @param k maximum distance (if negative, the result is empty)
+	 * @return new board with the tiles within k steps of the center
+	 */
+	public HexBoard tilesWithin(HexCoordinate center, int k) {
+		assert wellFormed() : "in tilesWithin";
+		HexBoard result = new HexBoard();
+		NodeStack found = new NodeStack(16);
+		visitWithin(center,k,(p) -> found.push(p));
+		result.replaceAll(found);
+		return result;
+	}
+	
+	/**
+	 * Replace the tree with copies of the given nodes.
+	 * @param found nodes in order (perhaps from another board), must not be null
+	 */
+	private void replaceAll(NodeStack found) {
+		Node[] nodes = new Node[found.size()];
+		for (int i=0; i < nodes.length; ++i) {
+			Node p = found.get(i);
+			nodes[i] = newNode(p.loc,p.terrain);
+			nodes[i].tile = p.tile;
+		}
+		replaceAll(nodes,nodes.length);
+	}
+	
+	/**
+	 * Visit the tiles next to a location, in the same order as the iterator.
+	 * The six neighbours of &lt;a,b,a-b&gt; are in three rows: 
+	 * &lt;a-1,b-1&gt; and &lt;a,b-1&gt;, then &lt;a-1,b&gt; and &lt;a+1,b&gt;,
+	 * then &lt;a,b+1&gt; and &lt;a+1,b+1&gt;.  The tree is searched once 
+	 * down to the subtree holding all of them, and then once for each row, 
+	 * without creating any objects for the neighbours.
+	 * The visitor must not modify the board.
+	 * @param a first coordinate of the location
+	 * @param b second coordinate of the location
+	 * @param v visitor to call for each neighbouring tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 */
+	public void forEachNeighbor(int a, int b, TileVisitor v) {
+		assert wellFormed() : "in forEachNeighbor";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		int myVersion = version;
+		visitNeighbors(a,b,(p) -> {
+			v.visit(p.loc.a(),p.loc.b(),p.terrain);
+			if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+		});
+	}
+	
+	/**
+	 * Return a new board with the (up to six) tiles next to a location.
+	 * @param l location whose neighbours are wanted, must not be null
+	 * @return new board with the tiles next to the location
+	 * @see #forEachNeighbor(int, int, TileVisitor)
+	 */
+	public HexBoard neighbors(HexCoordinate l) {
+		assert wellFormed() : "in neighbors";
+		HexBoard result = new HexBoard();
+		NodeStack found = new NodeStack(6);
+		visitNeighbors(l.a(),l.b(),(p) -> found.push(p));
+		result.replaceAll(found);
+		return result;
+	}
+	
+	/**
+	 * Pass each node next to a location to the consumer, in order.
+	 * Locations past the largest or smallest coordinate are skipped.
+	 * @param a first coordinate of the location
+	 * @param b second coordinate of the location
+	 * @param action what to do with each node, must not be null
+	 */
+	private void visitNeighbors(int a, int b, Consumer<Node> action) {
+		long aLo = a - 1L, aHi = a + 1L;
+		// find the subtree holding everything from <a-1,b-1> to <a+1,b+1>
+		Node r = root;
+		while (r != null) {
+			long rb = r.loc.b(), ra = r.loc.a();
+			if (rb < b-1L || rb == b-1L && ra < aLo) r = r.right;
+			else if (rb > b+1L || rb == b+1L && ra > aHi) r = r.left;
+			else break;
+		}
+		int lo = (int)Math.max(aLo,Integer.MIN_VALUE), hi = (int)Math.min(aHi,Integer.MAX_VALUE);
+		if (b != Integer.MIN_VALUE) visitRow(r,b-1,lo,a,action);
+		visitRow(r,b,lo,hi,(p) -> {
+			if (p.loc.a() != a) action.accept(p);
+		});
+		if (b != Integer.MAX_VALUE) visitRow(r,b+1,a,hi,action);
+	}
+	
+	/**
+	 * Pass each node within distance k of the center to the consumer, in order.
+	 * Rows without tiles are skipped, and locations past the largest or 
+	 * smallest coordinate are never considered.
+	 * @param center location to measure from, must not be null
+	 * @param k maximum distance
+	 * @param action what to do with each node, must not be null
+	 */
+	private void visitWithin(HexCoordinate center, int k, Consumer<Node> action) {
+		long a = center.a(), b = center.b();
+		long bHi = Math.min(b+k,Integer.MAX_VALUE);
+		for (Node p = firstInRow(Math.max(b-k,Integer.MIN_VALUE)); p != null && p.loc.b() <= bHi; ) {
+			long row = p.loc.b(), d = row - b;
+			// distance is the largest change in a, b or c = a-b
+			long lo = Math.max(Math.max(a-k,a+d-k),Integer.MIN_VALUE);
+			long hi = Math.min(Math.min(a+k,a+d+k),Integer.MAX_VALUE);
+			if (lo <= hi) visitRow(root,(int)row,(int)lo,(int)hi,action);
+			if (row == Integer.MAX_VALUE) break;
+			p = firstInRow(row+1);
+		}
+	}
+	
+	/**
+	 * Find the first node in the given row or a later one.
+	 * @param b row (second coordinate) to start at
+	 * @return first node in row b or after, or null if none
+	 */
+	private Node firstInRow(long b) {
+		Node best = null;
+		for (Node p = root; p != null; ) {
+			if (p.loc.b() >= b) {
+				best = p;
+				p = p.left;
+			} else p = p.right;
+		}
+		return best;
+	}
+	
+	/**
+	 * Pass each node in one row of a subtree within a range of first coordinates
+	 * to the consumer, in order, skipping subtrees that are out of range.
+	 * @param r subtree to search, may be null
+	 * @param b row (second coordinate) to look in
+	 * @param aLo lowest first coordinate to include
+	 * @param aHi highest first coordinate to include
+	 * @param action what to do with each node, must not be null
+	 */
+	private static void visitRow(Node r, int b, int aLo, int aHi, Consumer<Node> action) {
+		while (r != null) {
+			int rb = r.loc.b(), ra = r.loc.a();
+			if (rb < b || rb == b && ra < aLo) r = r.right;
+			else if (rb > b || ra > aHi) r = r.left;
+			else {
+				visitRow(r.left,b,aLo,aHi,action);
+				action.accept(r);
+				r = r.right;
+			}
+		}
+	}
+
+	/**
+	 * Return the first tile on this board: the one with the smallest
+	 * second coordinate, and of those, the smallest first coordinate.
+	 * @return first tile in order
+	 * @exception NoSuchElementException if the board is empty
+	 */
+	public HexTile first() {
+		assert wellFormed() : "in first";
+		if (root == null) throw new NoSuchElementException("board is empty");
+		Node p = root;
+		while (p.left != null) p = p.left;
+		return tileOf(p);
+	}
+	
+	/**
+	 * Return the last tile on this board: the one with the largest
+	 * second coordinate, and of those, the largest first coordinate.
+	 * @return last tile in order
+	 * @exception NoSuchElementException if the board is empty
+	 */
+	public HexTile last() {
+		assert wellFormed() : "in last";
+		if (root == null) throw new NoSuchElementException("board is empty");
+		Node p = root;
+		while (p.right != null) p = p.right;
+		return tileOf(p);
+	}
+	
+	/**
+	 * Return the tile at the given location, or if there is none,
+	 * the closest tile before it in order.
+	 * @param l location to look for, must not be null
+	 * @return the greatest tile at or before l, or null if none
+	 */
+	public HexTile floor(HexCoordinate l) {
+		return tileOrNull(find(l,true,true));
+	}
+	
+	/**
+	 * Return the tile at the given location, or if there is none,
+	 * the closest tile after it in order.  For example, 
+	 * <code>ceiling(new HexCoordinate(Integer.MIN_VALUE,b))</code>
+	 * finds the first tile in row b or later.
+	 * @param l location to look for, must not be null
+	 * @return the least tile at or after l, or null if none
+	 */
+	public HexTile ceiling(HexCoordinate l) {
+		return tileOrNull(find(l,false,true));
+	}
+	
+	/**
+	 * Return the closest tile before the given location in order.
+	 * @param l location to look before, must not be null
+	 * @return the greatest tile strictly before l, or null if none
+	 */
+	public HexTile lower(HexCoordinate l) {
+		return tileOrNull(find(l,true,false));
+	}
+	
+	/**
+	 * Return the closest tile after the given location in order.
+	 * For example, the next tile to the right in the same row
+	 * (if any) is <code>higher(l)</code> if it has the same second coordinate.
+	 * @param l location to look after, must not be null
+	 * @return the least tile strictly after l, or null if none
+	 */
+	public HexTile higher(HexCoordinate l) {
+		return tileOrNull(find(l,false,false));
+	}
+	
+	private HexTile tileOrNull(Node p) {
+		return p == null ? null : tileOf(p);
+	}
+	
+	/**
+	 * Find the closest node to a location in one direction.
+	 * @param l location to look for, must not be null
+	 * @param below whether to look before (rather than after) the location
+	 * @param inclusive whether a node at the location itself is acceptable
+	 * @return closest node in that direction, or null if none
+	 */
+	private Node find(HexCoordinate l, boolean below, boolean inclusive) {
+		assert wellFormed() : "in find";
+		if (l == null) throw new NullPointerException("location may not be null");
+		Node best = null;
+		for (Node p = root; p != null; ) {
+			int c = compare(l,p.loc);
+			if (c == 0 && inclusive) return p;
+			if (below) {
+				if (c > 0) {
+					best = p;
+					p = p.right;
+				} else p = p.left;
+			} else {
+				if (c < 0) {
+					best = p;
+					p = p.left;
+				} else p = p.right;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Return an iterator that starts at the given location (or the first
+	 * tile after it) and continues to the end of the board in order.
+	 * Finding the start takes logarithmic time.
+	 * The iterator supports removal.
+	 * @param from location to start at, must not be null
+	 * @return iterator over the tiles at or after the location
+	 */
+	public Iterator<HexTile> iterator(HexCoordinate from) {
+		assert wellFormed() : "in iterator(from)";
+		if (from == null) throw new NullPointerException("location may not be null");
+		return new MyIterator(from,null);
+	}
+	
+	/**
+	 * Return an iterator that starts at the tile with the given index 
+	 * (its position in order, starting at zero) and continues to the end
+	 * of the board.  Finding the start takes logarithmic time.
+	 * The iterator supports removal.
+	 * @param index index of the first tile, from 0 to size() inclusive
+	 * @return iterator over the tiles from the index on
+	 * @exception IndexOutOfBoundsException if the index is out of range
+	 */
+	public Iterator<HexTile> iterator(int index) {
+		assert wellFormed() : "in iterator(index)";
+		if (index < 0 || index > size) throw new IndexOutOfBoundsException("index " + index + " not in [0," + size + "]");
+		return new MyIterator(index == size ? null : nodeAt(root,index).loc,null);
+	}
+	
+	/**
+	 * Return the tile with the given index, that is, its position in the
+	 * order of the iterator, starting at zero.  This takes logarithmic time.
+	 * @param index index of the tile
+	 * @return tile at that index, never null
+	 * @exception IndexOutOfBoundsException if the index is negative or 
+	 * not less than the size
+	 */
+	public HexTile tileAt(int index) {
+		assert wellFormed() : "in tileAt";
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + " not in [0," + size + ")");
+		return tileOf(nodeAt(root,index));
+	}
+	
+	/**
+	 * Return the number of tiles before a location, which is the index
+	 * of the tile there, if any.  This takes logarithmic time.
+	 * @param l location, must not be null
+	 * @return number of tiles before the location
+	 * @see #tileAt(int)
+	 */
+	public int rank(HexCoordinate l) {
+		assert wellFormed() : "in rank";
+		if (l == null) throw new NullPointerException("location may not be null");
+		return sizeBefore(root,l);
+	}
+	
+	/**
+	 * Return a tile chosen uniformly at random, in logarithmic time.
+	 * @param r source of randomness, must not be null
+	 * @return a tile on this board
+	 * @exception NoSuchElementException if the board is empty
+	 */
+	public HexTile randomTile(Random r) {
+		assert wellFormed() : "in randomTile";
+		if (size == 0) throw new NoSuchElementException("board is empty");
+		return tileOf(nodeAt(root,r.nextInt(size)));
+	}
+	
+	/**
+	 * Return the node with the given index in order in a subtree.
+	 * @param p subtree, must not be null
+	 * @param index index of node, must be in [0,size of subtree)
+	 * @return node at that index, never null
+	 */
+	private static Node nodeAt(Node p, int index) {
+		for (;;) {
+			int s = sizeOf(p.left);
+			if (index == s) return p;
+			if (index < s) p = p.left;
+			else {
+				index -= s + 1;
+				p = p.right;
+			}
+		}
+	}
+	
+	/**
+	 * Visit every tile that could be seen (even partly) in a rectangle
+	 * of the plane where the tiles are drawn with the given width,
+	 * in the same order as the iterator.  Only the visible rows that
+	 * have tiles are searched, and in each of them only the visible span, 
+	 * so the time taken depends on the number of tiles visible (and the
+	 * number of rows they are in), not the size of the board or the view.
+	 * The visitor must not modify the board.
+	 * @param view rectangle of the plane, must not be null
+	 * @param width width of each hexagon, must be positive
+	 * @param v visitor to call for each tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 * @see HexCoordinate#toPolygon(int)
+	 */
+	public void forEachTileIn(Rectangle view, int width, TileVisitor v) {
+		assert wellFormed() : "in forEachTileIn";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		if (width <= 0) throw new IllegalArgumentException("width must be positive: " + width);
+		int myVersion = version;
+		Consumer<Node> action = (p) -> {
+			v.visit(p.loc.a(),p.loc.b(),p.terrain);
+			if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+		};
+		// a hexagon reaches 2/3 of a row above and below its center
+		// and half its width to the left and right
+		double height = width * HexCoordinate.HEIGHT_RATIO;
+		// rows and spans past the largest or smallest coordinate are clamped
+		double bLo = Math.ceil((view.getMinY() - height*2/3)/height);
+		double bHi = Math.floor((view.getMaxY() + height*2/3)/height);
+		if (bLo > bHi || bHi < Integer.MIN_VALUE || bLo > Integer.MAX_VALUE) return;
+		long last = (long)Math.min(bHi,Integer.MAX_VALUE);
+		for (Node p = firstInRow((long)Math.max(bLo,Integer.MIN_VALUE)); p != null && p.loc.b() <= last; ) {
+			int b = p.loc.b();
+			double aLo = Math.ceil((view.getMinX() - width/2.0)/width + b/2.0);
+			double aHi = Math.floor((view.getMaxX() + width/2.0)/width + b/2.0);
+			if (aLo <= aHi && aHi >= Integer.MIN_VALUE && aLo <= Integer.MAX_VALUE) {
+				visitRow(root,b,(int)Math.max(aLo,Integer.MIN_VALUE),(int)Math.min(aHi,Integer.MAX_VALUE),action);
+			}
+			if (b == Integer.MAX_VALUE) break;
+			p = firstInRow(b+1L);
+		}
+	}
+	
+	/**
+	 * A function that adds a tile to a partial result of an aggregation,
+	 * without creating {@link HexTile} or {@link HexCoordinate} objects.
+	 * @param <A> type of partial results
+	 */
+	@FunctionalInterface
+	public interface TileAccumulator<A> {
+		/**
+		 * Add the tile at coordinate &lt;a,b,a-b&gt; to a partial result.
+		 * @param result partial result to change, never null
+		 * @param a first coordinate of the tile
+		 * @param b second coordinate of the tile
+		 * @param t terrain of the tile, never null
+		 */
+		void accumulate(A result, int a, int b, Terrain t);
+	}
+	
+	/**
+	 * Combine all the tiles of this board into one result, working on 
+	 * different parts of the tree in parallel (with fork/join).
+	 * Each part starts with a new partial result, tiles are added to it
+	 * in order, and partial results are combined in order, earlier first.
+	 * The board must not be changed until this method returns
+	 * (unless it is a snapshot, which can't be changed).
+	 * @param <A> type of result
+	 * @param create creates a new empty partial result, must not be null
+	 * @param add adds a tile to a partial result, must not be null
+	 * @param combine combines two partial results (perhaps by changing 
+	 * and returning the first), must not be null
+	 * @return result for all the tiles
+	 * @exception ConcurrentModificationException if the board is changed
+	 */
+	public <A> A aggregate(Supplier<A> create, TileAccumulator<A> add, BinaryOperator<A> combine) {
+		return aggregate(null,null,create,add,combine);
+	}
+	
+	/**
+	 * Return how many tiles of each terrain there are on this board.
+	 * This takes constant time, since the tree keeps the counts.
+	 * @return new map from every terrain to its number of tiles
+	 */
+	public EnumMap<Terrain,Long> terrainCounts() {
+		return terrainCounts(null,null);
+	}
+	
+	/**
+	 * Return how many tiles of each terrain there are in part of this board.
+	 * This takes logarithmic time, since the tree keeps the counts for 
+	 * each subtree: no tiles are visited.
+	 * @param from first location to count, or null to start at the beginning
+	 * @param to location to stop before, or null to go to the end
+	 * @return new map from every terrain to its number of tiles in the range
+	 * @exception IllegalArgumentException if from is after to
+	 * @see #subBoard(HexCoordinate, HexCoordinate)
+	 */
+	public EnumMap<Terrain,Long> terrainCounts(HexCoordinate from, HexCoordinate to) {
+		assert wellFormed() : "in terrainCounts";
+		int[] counts = countsIn(from,to);
+		EnumMap<Terrain,Long> result = new EnumMap<>(Terrain.class);
+		for (Terrain t : TERRAINS) {
+			result.put(t,(long)counts[t.ordinal()]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Return the number of tiles of a terrain on this board, in constant time.
+	 * @param t terrain to count, must not be null
+	 * @return number of tiles with this terrain
+	 */
+	public int count(Terrain t) {
+		return count(t,null,null);
+	}
+	
+	/**
+	 * Return the number of tiles of a terrain in part of this board, 
+	 * in logarithmic time.
+	 * @param t terrain to count, must not be null
+	 * @param from first location to count, or null to start at the beginning
+	 * @param to location to stop before, or null to go to the end
+	 * @return number of tiles with this terrain in the range
+	 * @exception IllegalArgumentException if from is after to
+	 */
+	public int count(Terrain t, HexCoordinate from, HexCoordinate to) {
+		assert wellFormed() : "in count";
+		if (t == null) throw new NullPointerException("terrain may not be null");
+		return countsIn(from,to)[t.ordinal()];
+	}
+	
+	/**
+	 * Return the number of tiles of a terrain in a band of rows,
+	 * in logarithmic time.
+	 * @param t terrain to count, must not be null
+	 * @param b1 first row (second coordinate) to count
+	 * @param b2 last row to count (if less than b1, nothing is counted)
+	 * @return number of tiles with this terrain in rows b1 through b2
+	 */
+	public int countInRows(Terrain t, int b1, int b2) {
+		assert wellFormed() : "in countInRows";
+		if (t == null) throw new NullPointerException("terrain may not be null");
+		if (b2 < b1) return 0;
+		HexCoordinate from = new HexCoordinate(Integer.MIN_VALUE,b1);
+		HexCoordinate to = b2 == Integer.MAX_VALUE ? null : new HexCoordinate(Integer.MIN_VALUE,b2+1);
+		return countsIn(from,to)[t.ordinal()];
+	}
+	
+	/**
+	 * Return the number of tiles of each terrain in a range.
+	 * @param from first location to count, or null for no limit
+	 * @param to location to stop before, or null for no limit
+	 * @return new array of counts, indexed by terrain ordinal
+	 */
+	private int[] countsIn(HexCoordinate from, HexCoordinate to) {
+		if (from != null && to != null && compare(from,to) > 0) throw new IllegalArgumentException("range backwards: " + from + " after " + to);
+		int[] counts = new int[TERRAINS.length];
+		if (to == null) addCounts(root,counts,1);
+		else addCountsBefore(to,counts,1);
+		if (from != null) addCountsBefore(from,counts,-1);
+		return counts;
+	}
+	
+	/**
+	 * Add (or subtract) the terrain counts of all the tiles 
+	 * before a location, going down one path of the tree.
+	 * @param l location to stop before, must not be null
+	 * @param counts array of counts to change, indexed by terrain ordinal
+	 * @param sign 1 to add the counts, -1 to subtract them
+	 */
+	private void addCountsBefore(HexCoordinate l, int[] counts, int sign) {
+		for (Node p = root; p != null; ) {
+			if (compare(p.loc,l) < 0) {
+				addCounts(p.left,counts,sign);
+				counts[p.terrain.ordinal()] += sign;
+				p = p.right;
+			} else p = p.left;
+		}
+	}
+	
+	/**
+	 * Add (or subtract) the terrain counts of a subtree.  This takes 
+	 * constant time unless the nodes don't know their counts.
+	 * @param r subtree, may be null
+	 * @param counts array of counts to change, indexed by terrain ordinal
+	 * @param sign 1 to add the counts, -1 to subtract them
+	 */
+	private static void addCounts(Node r, int[] counts, int sign) {
+		for (; r != null; r = r.right) {
+			if (r.counts != null) {
+				for (int i=0; i < counts.length; ++i) counts[i] += sign * r.counts[i];
+				return;
+			}
+			addCounts(r.left,counts,sign);
+			counts[r.terrain.ordinal()] += sign;
+		}
+	}
+	
+	private <A> A aggregate(HexCoordinate from, HexCoordinate to, Supplier<A> create, TileAccumulator<A> add, BinaryOperator<A> combine) {
+		assert wellFormed() : "in aggregate";
+		if (create == null || add == null || combine == null) throw new NullPointerException("functions may not be null");
+		int myVersion = version;
+		// a few tasks per worker, since subtrees are only roughly balanced
+		int forkDepth = 34 - Integer.numberOfLeadingZeros(ForkJoinPool.getCommonPoolParallelism());
+		A result = new Aggregation<A>(root,from,to,0,forkDepth,create,add,combine).invoke();
+		if (version != myVersion) throw new ConcurrentModificationException("board changed during aggregate");
+		return result;
+	}
+	
+	/**
+	 * A fork/join task to aggregate the tiles in a range within a subtree.
+	 * Near the root, the left subtree is forked off and the right subtree
+	 * is done by the current task; deeper down, it all is done sequentially.
+	 */
+	private static class Aggregation<A> extends RecursiveTask<A> {
+		private static final long serialVersionUID = 1L;
+		private final Node r;
+		private final HexCoordinate lo, hi; // either may be null
+		private final int depth, forkDepth;
+		private final Supplier<A> create;
+		private final TileAccumulator<A> add;
+		private final BinaryOperator<A> combine;
+		
+		Aggregation(Node r, HexCoordinate lo, HexCoordinate hi, int depth, int forkDepth,
+				Supplier<A> create, TileAccumulator<A> add, BinaryOperator<A> combine) {
+			this.r = r;
+			this.lo = lo;
+			this.hi = hi;
+			this.depth = depth;
+			this.forkDepth = forkDepth;
+			this.create = create;
+			this.add = add;
+			this.combine = combine;
+		}
+		
+		@Override // required by Java
+		protected A compute() {
+			Node p = r;
+			// skip nodes out of range
+			while (p != null && (lo != null && compare(p.loc,lo) < 0 || hi != null && compare(p.loc,hi) >= 0)) {
+				if (lo != null && compare(p.loc,lo) < 0) p = p.right;
+				else p = p.left;
+			}
+			A result = create.get();
+			if (p == null) return result;
+			if (depth >= forkDepth) {
+				accumulate(p,result);
+				return result;
+			}
+			// within range: the left subtree only needs the lower bound, the right the upper
+			Aggregation<A> left = new Aggregation<>(p.left,lo,null,depth+1,forkDepth,create,add,combine);
+			Aggregation<A> right = new Aggregation<>(p.right,null,hi,depth+1,forkDepth,create,add,combine);
+			left.fork();
+			A after = right.compute();
+			add.accumulate(result,p.loc.a(),p.loc.b(),p.terrain);
+			return combine.apply(combine.apply(left.join(),result),after);
+		}
+		
+		/**
+		 * Add all the tiles in range in a subtree to a result, in order.
+		 * @param p subtree, may be null
+		 * @param result partial result to add to, must not be null
+		 */
+		private void accumulate(Node p, A result) {
+			while (p != null) {
+				if (lo != null && compare(p.loc,lo) < 0) p = p.right;
+				else if (hi != null && compare(p.loc,hi) >= 0) p = p.left;
+				else {
+					accumulate(p.left,result);
+					add.accumulate(result,p.loc.a(),p.loc.b(),p.terrain);
+					p = p.right;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Return a view of the part of this board from one location up to 
+	 * (but not including) another, in the order of the iterator,
+	 * that is, by rows and then by position within a row.
+	 * Iterating over the view starts directly at the first location, 
+	 * so it takes time proportional to the number of tiles in the view 
+	 * (plus the time to find the first one).
+	 * Changes to the view change this board, and vice versa, and
+	 * the view's iterator (with removal) has the same fail-fast behavior
+	 * as this board's.  Adding a tile outside of the range
+	 * of the view is not permitted.
+	 * @param from first location in the view, must not be null
+	 * @param to location to stop before, must not be null or before from
+	 * @return view of part of this board
+	 */
+	public Collection<HexTile> subBoard(HexCoordinate from, HexCoordinate to) {
+		if (compare(from,to) > 0) throw new IllegalArgumentException("range backwards: " + from + " after " + to);
+		return new SubBoard(from,to);
+	}
+	
+	private class SubBoard extends AbstractCollection<HexTile> {
+		private final HexCoordinate from, to;
+		
+		SubBoard(HexCoordinate from, HexCoordinate to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		private boolean inRange(HexCoordinate l) {
+			return compare(from,l) <= 0 && compare(l,to) < 0;
+		}
+		
+		@Override // required by Java
+		public Iterator<HexTile> iterator() {
+			assert wellFormed() : "in subBoard iterator";
+			return new MyIterator(from,to);
+		}
+		
+		@Override // required by Java
+		public int size() {
+			int count = 0;
+			for (int n : countsIn(from,to)) count += n;
+			return count;
+		}
+		
+		@Override // efficiency
+		public boolean contains(Object o) {
+			return o instanceof HexTile && inRange(((HexTile)o).getLocation()) && HexBoard.this.contains(o);
+		}
+		
+		@Override // efficiency
+		public boolean remove(Object o) {
+			return o instanceof HexTile && inRange(((HexTile)o).getLocation()) && HexBoard.this.remove(o);
+		}
+		
+		@Override // required for functionality
+		public boolean add(HexTile t) {
+			if (!inRange(t.getLocation())) throw new IllegalArgumentException(t + " outside of " + from + " to " + to);
+			return HexBoard.this.add(t);
+		}
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return size;
+	}
+	
+	@Override // required for efficiency
+	public boolean contains(Object o) {
+		assert wellFormed() : "in contains()";
+		if (o instanceof HexTile) {
+			HexTile h = (HexTile)o;
+			return terrainAt(h.getLocation()) == h.getTerrain();
+		}
+		return false;
+	}
+
+	@Override // required for correctness
+	public boolean add(HexTile e) {
+		assert wellFormed() : "in add()";
+		checkMutable();
+		boolean result = put(e.getLocation(),e.getTerrain());
+		assert wellFormed() : "after add()";
+		return result;
+	}
+	
+	/**
+	 * Put a tile in the tree, replacing any tile at the same location.
+	 * @param l location of the tile, must not be null
+	 * @param t terrain of the tile, must not be null
+	 * @return whether the tree changed
+	 */
+	private boolean put(HexCoordinate l, Terrain t) {
+		Node lag = null;
+		Node p = root;
+		int c = 0;
+		int depth = 0;
+		while (p != null) {
+			c = compare(l,p.loc);
+			if (c == 0) break;
+			if (depth == path.length) path = Arrays.copyOf(path, depth*2);
+			path[depth++] = p;
+			lag = p;
+			if (c < 0) p = p.left;
+			else p = p.right;
+		}
+		if (p != null) { // found it!
+			if (p.terrain == t) {
+				Arrays.fill(path,0,depth,null);
+				return false;
+			}
+			p = ownPath(depth,p);
+			record(p.loc,p.terrain,t);
+			adjustCounts(depth,p.terrain,-1);
+			adjustCounts(depth,t,1);
+			adjustCount(p,p.terrain,-1);
+			adjustCount(p,t,1);
+			p.terrain = t;
+			p.tile = null;
+			Arrays.fill(path,0,depth,null);
+			// size doesn't increase...
+		} else {
+			ownPath(depth,null);
+			adjustCounts(depth,t,1);
+			if (depth > 0) lag = path[depth-1];
+			p = newNode(l,t);
+			record(p.loc,null,p.terrain);
+			++size;
+			if (lag == null) root = p;
+			else if (c < 0) lag.left = p;
+			else lag.right = p;
+			if (size > maxSize) maxSize = size;
+			if (depth > depthLimit(maxSize)) rebalance(p,depth);
+			else Arrays.fill(path,0,depth,null);
+		}
+		++version;
+		return true;
+	}
+	
+	/**
+	 * Ancestors of the node being added or removed (root first), 
+	 * kept around to avoid allocating a new array for every change.
+	 */
+	private Node[] path = new Node[16];
+	
+	/**
+	 * Change the count of a terrain in a node (owned by this board), 
+	 * if it knows its counts.
+	 * @param p node to change, must not be null
+	 * @param t terrain whose count changes
+	 * @param delta amount to change the count by
+	 */
+	private static void adjustCount(Node p, Terrain t, int delta) {
+		if (p.counts != null) p.counts[t.ordinal()] += delta;
+	}
+	
+	/**
+	 * Change the count of a terrain in every node of {@link #path}.
+	 * @param depth number of nodes in the path (all owned by this board)
+	 * @param t terrain whose count changes
+	 * @param delta amount to change the count by
+	 */
+	private void adjustCounts(int depth, Terrain t, int delta) {
+		for (int i=0; i < depth; ++i) {
+			adjustCount(path[i],t,delta);
+		}
+	}
+	
+	/**
+	 * Find the scapegoat for a node added too deep in the tree,
+	 * and rebuild the scapegoat's subtree to be perfectly balanced.
+	 * @param p node just added, must not be null
+	 * @param depth depth of p, its ancestors (all owned by this board)
+	 * are in {@link #path}
+	 */
+	private void rebalance(Node p, int depth) {
+		int childSize = 1;
+		Node child = p;
+		for (int i = depth-1; i >= 0; --i) {
+			Node g = path[i];
+			int gSize = childSize + 1 + sizeOf(g.left == child ? g.right : g.left);
+			if (3*childSize > 2*gSize) {
+				Node rebuilt = rebuild(g,gSize);
+				if (i == 0) root = rebuilt;
+				else if (path[i-1].left == g) path[i-1].left = rebuilt;
+				else path[i-1].right = rebuilt;
+				break;
+			}
+			child = g;
+			childSize = gSize;
+		}
+		Arrays.fill(path,0,depth,null); // don't hold on to garbage
+	}
+	
+	/**
+	 * Rearrange a subtree to be perfectly balanced, reusing its nodes
+	 * (except for shared ones, which are copied).
+	 * @param r root of subtree, may be null
+	 * @param n number of nodes in the subtree
+	 * @return new root of the subtree
+	 */
+	private Node rebuild(Node r, int n) {
+		Node[] nodes = new Node[n];
+		flatten(r,nodes,0);
+		ownAll(nodes,n);
+		return buildBalanced(nodes,0,n);
+	}
+	
+	/**
+	 * Replace shared nodes in an array with copies that this board owns.
+	 * The children of the copies are not useful.
+	 * @param nodes array of nodes, must not be null
+	 * @param n number of nodes to look at
+	 */
+	private void ownAll(Node[] nodes, int n) {
+		for (int i=0; i < n; ++i) {
+			nodes[i] = own(nodes[i]);
+		}
+	}
+	
+	/**
+	 * Put the nodes of a subtree in order into an array.
+	 * @param r subtree, may be null
+	 * @param nodes array to fill, must be large enough
+	 * @param i where to put the first node
+	 * @return index after the last node put in the array
+	 */
+	private static int flatten(Node r, Node[] nodes, int i) {
+		for (; r != null; r = r.right) {
+			i = flatten(r.left,nodes,i);
+			nodes[i++] = r;
+		}
+		return i;
+	}
+	
+	/**
+	 * Link the given nodes (already in order) into a perfectly balanced tree,
+	 * and set their terrain counts.
+	 * @param nodes array of nodes in order (that may be changed), must not be null
+	 * @param lo index of first node to use
+	 * @param hi index after the last node to use
+	 * @return root of the new tree, null if lo == hi
+	 */
+	private static Node buildBalanced(Node[] nodes, int lo, int hi) {
+		if (lo == hi) return null;
+		int mid = (lo + hi) >>> 1;
+		Node r = nodes[mid];
+		r.left = buildBalanced(nodes,lo,mid);
+		r.right = buildBalanced(nodes,mid+1,hi);
+		if (r.counts == null) r.counts = new int[TERRAINS.length];
+		else Arrays.fill(r.counts,0);
+		++r.counts[r.terrain.ordinal()];
+		addCounts(r.left,r.counts,1);
+		addCounts(r.right,r.counts,1);
+		return r;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Adding many tiles at once is done by merging them with
+	 * this board's tiles and building a balanced tree from the result,
+	 * which takes linear time if the tiles are already in order
+	 * (as when they come from another hex board).
+	 */
+	@Override // more efficient
+	public boolean addAll(Collection<? extends HexTile> c) {
+		assert wellFormed() : "in addAll()";
+		checkMutable();
+		if (c == this) return false;
+		int m = c.size();
+		if (m == 0) return false;
+		if (fewerThanLinear(m)) {
+			// few enough to add one at a time
+			return super.addAll(c);
+		}
+		Node[] theirs = sortedNodes(c);
+		boolean changed = merge(theirs,theirs.length);
+		assert wellFormed() : "after addAll()";
+		return changed;
+	}
+	
+	/**
+	 * Return new nodes for the given tiles, in order.
+	 * If several tiles have the same location, only the last one is kept.
+	 * @param c collection of tiles, must not be null or contain null
+	 * @return array of new nodes, in order without duplicate locations
+	 */
+	private Node[] sortedNodes(Collection<? extends HexTile> c) {
+		if (c instanceof HexBoard) {
+			Node[] nodes = nodesOf((HexBoard)c);
+			for (int i=0; i < nodes.length; ++i) {
+				Node n = newNode(nodes[i].loc,nodes[i].terrain);
+				n.tile = nodes[i].tile;
+				nodes[i] = n;
+			}
+			return nodes;
+		}
+		HexTile[] tiles = c.toArray(new HexTile[c.size()]);
+		boolean sorted = true;
+		for (int i=1; i < tiles.length && sorted; ++i) {
+			sorted = compare(tiles[i-1].getLocation(),tiles[i].getLocation()) < 0;
+		}
+		if (!sorted) { // stable, so later tiles stay later
+			Arrays.sort(tiles,(t1,t2) -> compare(t1.getLocation(),t2.getLocation()));
+		}
+		int n = 0;
+		for (int i=0; i < tiles.length; ++i) {
+			if (n > 0 && tiles[n-1].getLocation().equals(tiles[i].getLocation())) --n;
+			tiles[n++] = tiles[i];
+		}
+		Node[] nodes = new Node[n];
+		for (int i=0; i < n; ++i) {
+			nodes[i] = newNode(tiles[i].getLocation(),tiles[i].getTerrain());
+			if (cacheTiles) nodes[i].tile = tiles[i];
+		}
+		return nodes;
+	}
+	
+	/**
+	 * Merge new nodes into this tree, and rebuild it perfectly balanced.
+	 * Where a new node has the same location as an existing one,
+	 * the existing node is kept, but with the new terrain.
+	 * @param theirs nodes to add (owned by this board), 
+	 * in order with no duplicate locations
+	 * @param m number of nodes to add
+	 * @return whether anything changed
+	 */
+	private boolean merge(Node[] theirs, int m) {
+		Node[] mine = nodesOf(this);
+		ownAll(mine,mine.length);
+		Node[] merged = new Node[mine.length + m];
+		boolean changed = false;
+		int i = 0, j = 0, n = 0;
+		while (i < mine.length && j < m) {
+			int c = compare(mine[i].loc,theirs[j].loc);
+			if (c < 0) merged[n++] = mine[i++];
+			else if (c > 0) {
+				record(theirs[j].loc,null,theirs[j].terrain);
+				merged[n++] = theirs[j++];
+				changed = true;
+			} else {
+				Node p = mine[i++];
+				Node q = theirs[j++];
+				if (p.terrain != q.terrain) {
+					record(p.loc,p.terrain,q.terrain);
+					p.terrain = q.terrain;
+					p.tile = null;
+					changed = true;
+				}
+				merged[n++] = p;
+			}
+		}
+		while (i < mine.length) merged[n++] = mine[i++];
+		if (j < m) changed = true;
+		while (j < m) {
+			record(theirs[j].loc,null,theirs[j].terrain);
+			merged[n++] = theirs[j++];
+		}
+		if (!changed) return false;
+		replaceAll(merged,n);
+		return true;
+	}
+	
+	/**
+	 * Replace the tree with a perfectly balanced one
+	 * built from the given nodes.
+	 * @param nodes nodes in order, all owned by this board, must not be null
+	 * @param n number of nodes to use
+	 */
+	private void replaceAll(Node[] nodes, int n) {
+		root = buildBalanced(nodes,0,n);
+		size = maxSize = n;
+		++version;
+	}
+	
+	/**
+	 * Return a loader that collects tiles to add to this board all at once.
+	 * Used by {@link HexBoardParser} to build nodes directly,
+	 * without creating a {@link HexTile} for each tile.
+	 * @return new loader for this board
+	 */
+	Loader loader() {
+		checkMutable();
+		return new Loader();
+	}
+	
+	/**
+	 * Tiles waiting to be added to this board, kept as the nodes 
+	 * that will be put in the tree.  Nothing is changed until {@link #finish()}.
+	 */
+	final class Loader {
+		private Node[] nodes = new Node[1024];
+		private int n;
+		private boolean sorted = true;
+		
+		/**
+		 * Add a tile to those waiting.  If several have the same location,
+		 * the last one is used.
+		 * @param a first coordinate of the tile
+		 * @param b second coordinate of the tile
+		 * @param t terrain of the tile, must not be null
+		 */
+		void add(int a, int b, Terrain t) {
+			HexCoordinate l = new HexCoordinate(a,b);
+			if (n > 0 && sorted && compare(nodes[n-1].loc,l) >= 0) sorted = false;
+			if (n == nodes.length) nodes = Arrays.copyOf(nodes,n*2);
+			nodes[n++] = newNode(l,t);
+		}
+		
+		/**
+		 * Add all the waiting tiles to the board, which takes linear time 
+		 * if they are in order, or only logarithmic time each if there
+		 * are few of them.
+		 * @return whether the board changed
+		 */
+		boolean finish() {
+			assert wellFormed() : "in Loader.finish";
+			checkMutable();
+			if (!sorted) { // stable, so later tiles stay later
+				Arrays.sort(nodes,0,n,(p,q) -> compare(p.loc,q.loc));
+			}
+			int m = 0;
+			for (int i=0; i < n; ++i) {
+				if (m > 0 && nodes[m-1].loc.equals(nodes[i].loc)) --m;
+				nodes[m++] = nodes[i];
+			}
+			boolean changed = false;
+			if (fewerThanLinear(m)) {
+				for (int i=0; i < m; ++i) {
+					if (put(nodes[i].loc,nodes[i].terrain)) changed = true;
+				}
+			} else if (m > 0) {
+				ownAll(nodes,m); // in case the board was shared since
+				changed = merge(nodes,m);
+			}
+			nodes = null;
+			assert wellFormed() : "after Loader.finish";
+			return changed;
+		}
+	}
+	
+	/**
+	 * Return whether an operation with another collection should be 
+	 * done one element at a time, rather than by merging all the tiles.
+	 * @param m size of the other collection
+	 * @return whether m is small enough that m log n &lt; n
+	 */
+	private boolean fewerThanLinear(int m) {
+		return (long)m * (32 - Integer.numberOfLeadingZeros(size)) < size;
+	}
+	
+	/**
+	 * Return the nodes of a board in order.
+	 * @param b board to get nodes from, must not be null
+	 * @return new array of all the nodes of the board
+	 */
+	private static Node[] nodesOf(HexBoard b) {
+		Node[] nodes = new Node[b.size];
+		flatten(b.root,nodes,0);
+		return nodes;
+	}
+	
+	@Override // more efficient
+	public boolean containsAll(Collection<?> c) {
+		assert wellFormed() : "in containsAll()";
+		if (!(c instanceof HexBoard) || c == this) return super.containsAll(c);
+		HexBoard other = (HexBoard)c;
+		if (other.size > size) return false;
+		if (fewerThanLinear(other.size)) return super.containsAll(c);
+		Node[] mine = nodesOf(this);
+		Node[] theirs = nodesOf(other);
+		int i = 0;
+		for (Node q : theirs) {
+			while (i < mine.length && compare(mine[i].loc,q.loc) < 0) ++i;
+			if (i == mine.length || compare(mine[i].loc,q.loc) != 0 || mine[i].terrain != q.terrain) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * If the argument is another hex board, this is done
+	 * by merging the two boards in linear time.
+	 */
+	@Override // more efficient
+	public boolean removeAll(Collection<?> c) {
+		assert wellFormed() : "in removeAll()";
+		checkMutable();
+		boolean changed = false;
+		if (c == this) {
+			changed = size > 0;
+			clear();
+		} else if (c instanceof HexBoard && !fewerThanLinear(c.size())) {
+			changed = filter((HexBoard)c,false);
+		} else if (fewerThanLinear(c.size())) {
+			for (Object o : c) {
+				if (o instanceof HexTile) {
+					HexTile h = (HexTile)o;
+					if (removeAt(h.getLocation(),h.getTerrain())) changed = true;
+				}
+			}
+		} else {
+			changed = super.removeAll(c);
+		}
+		assert wellFormed() : "after removeAll()";
+		return changed;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * If the argument is another hex board, this is done
+	 * by merging the two boards in linear time.
+	 */
+	@Override // more efficient
+	public boolean retainAll(Collection<?> c) {
+		assert wellFormed() : "in retainAll()";
+		checkMutable();
+		boolean changed;
+		if (c instanceof HexBoard && c != this) changed = filter((HexBoard)c,true);
+		else changed = super.retainAll(c);
+		assert wellFormed() : "after retainAll()";
+		return changed;
+	}
+	
+	/**
+	 * Keep only the tiles that are (or are not) also in another board.
+	 * @param other board to compare with, must not be null or this
+	 * @param keepCommon whether to keep the tiles in common (otherwise
+	 * keep the tiles that aren't in the other board)
+	 * @return whether anything changed
+	 */
+	private boolean filter(HexBoard other, boolean keepCommon) {
+		Node[] mine = nodesOf(this);
+		Node[] theirs = nodesOf(other);
+		int j = 0, n = 0;
+		for (Node p : mine) {
+			while (j < theirs.length && compare(theirs[j].loc,p.loc) < 0) ++j;
+			boolean common = j < theirs.length && compare(theirs[j].loc,p.loc) == 0 && theirs[j].terrain == p.terrain;
+			if (common == keepCommon) mine[n++] = p;
+			else record(p.loc,p.terrain,null);
+		}
+		if (n == mine.length) return false;
+		ownAll(mine,n);
+		replaceAll(mine,n);
+		return true;
+	}
+
+	/// Binary format
+	//
+	// A board is written as the magic bytes "HXB1", then
+	// the number of tiles and the number of bytes that follow (as varints),
+	// then the tiles in order, in pairs: each tile's location, and then
+	// a byte holding the two terrain ordinals (first in the low nibble).
+	// If there is an odd number of tiles, the last byte holds only one terrain.
+	// Each location is relative to the previous one (starting at <0,0,0>):
+	// the change in b, and then if b didn't change, the gap in a minus one,
+	// and otherwise the new a.  The first change in b and any new a 
+	// are zig-zag encoded so they can be negative.
+	// All numbers are variable-length: seven bits a byte, low bits first.
+	
+	private static final byte[] MAGIC = { 'H', 'X', 'B', '1' };
+	
+	/**
+	 * Write this board to a stream in a compact binary format
+	 * that can be read by {@link #readFrom(InputStream)}.
+	 * The stream is flushed but not closed.
+	 * @param out stream to write to, must not be null
+	 * @throws IOException if the stream cannot be written
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		assert wellFormed() : "in writeTo";
+		Node[] nodes = nodesOf(this);
+		long length = (nodes.length + 1) / 2;
+		long prevA = 0, prevB = 0;
+		for (int i=0; i < nodes.length; ++i) {
+			long a = nodes[i].loc.a(), b = nodes[i].loc.b();
+			length += varLength(i == 0 ? zigzag(b) : b - prevB);
+			length += varLength(b == prevB && i > 0 ? a - prevA - 1 : zigzag(a));
+			prevA = a;
+			prevB = b;
+		}
+		ByteSink sink = new ByteSink(out);
+		sink.write(MAGIC);
+		sink.writeVar(nodes.length);
+		sink.writeVar(length);
+		prevA = prevB = 0;
+		for (int i=0; i < nodes.length; ++i) {
+			long a = nodes[i].loc.a(), b = nodes[i].loc.b();
+			sink.writeVar(i == 0 ? zigzag(b) : b - prevB);
+			sink.writeVar(b == prevB && i > 0 ? a - prevA - 1 : zigzag(a));
+			prevA = a;
+			prevB = b;
+			if ((i & 1) == 1) {
+				sink.write(nodes[i-1].terrain.ordinal() | nodes[i].terrain.ordinal() << 4);
+			}
+		}
+		if ((nodes.length & 1) == 1) sink.write(nodes[nodes.length-1].terrain.ordinal());
+		sink.flush();
+	}
+	
+	/**
+	 * Read a board written by {@link #writeTo(OutputStream)} and add
+	 * its tiles to this board.  The tiles are read in order, so they
+	 * are put in the board with a linear-time merge.
+	 * Nothing is read from the stream past the end of the board.
+	 * If the stream doesn't hold a valid board, this board is unchanged.
+	 * @param in stream to read from, must not be null
+	 * @return whether this board changed
+	 * @throws IOException if the stream cannot be read or doesn't hold a board
+	 */
+	public boolean readFrom(InputStream in) throws IOException {
+		assert wellFormed() : "in readFrom";
+		checkMutable();
+		byte[] magic = in.readNBytes(MAGIC.length);
+		if (!Arrays.equals(magic,MAGIC)) throw new IOException("not a hex board");
+		long n = readVar(in);
+		long length = readVar(in);
+		// each tile takes at least two bytes for its location, and half a byte for its terrain
+		if (n > Integer.MAX_VALUE - 8 || length < 2*n + (n+1)/2) throw new IOException("bad hex board header");
+		ByteSource source = new ByteSource(in,length);
+		// don't trust the header for the size: grow the array as tiles are read
+		Node[] nodes = new Node[(int)Math.min(n,1024)];
+		long a = 0, b = 0;
+		Terrain[] terrains = Terrain.values();
+		for (int i=0; i < n; ++i) {
+			long db = source.readVar();
+			if (i == 0) b = unzigzag(db);
+			else if (db < 0) throw new IOException("bad row change at tile " + i);
+			else b += db;
+			if (db == 0 && i > 0) {
+				long gap = source.readVar();
+				if (gap < 0) throw new IOException("bad gap at tile " + i);
+				a += gap + 1;
+			}
+			else a = unzigzag(source.readVar());
+			if (a != (int)a || b != (int)b) throw new IOException("hex coordinate out of range at tile " + i);
+			HexCoordinate l = new HexCoordinate((int)a,(int)b);
+			if (i > 0 && compare(nodes[i-1].loc,l) >= 0) throw new IOException("tiles out of order at tile " + i);
+			if (i == nodes.length) nodes = Arrays.copyOf(nodes,(int)Math.min(n,2L*i));
+			nodes[i] = newNode(l,null);
+			if ((i & 1) == 1 || i == n-1) {
+				int codes = source.read();
+				int t1 = codes & 15, t2 = codes >> 4;
+				if ((i & 1) == 0) {
+					t2 = t1;
+					t1 = 0;
+				}
+				if (t1 >= terrains.length || t2 >= terrains.length) throw new IOException("bad terrain at tile " + i);
+				if ((i & 1) == 1) nodes[i-1].terrain = terrains[t1];
+				nodes[i].terrain = terrains[t2];
+			}
+		}
+		if (!source.done()) throw new IOException("extra data at end of hex board");
+		boolean changed = nodes.length > 0 && merge(nodes,nodes.length);
+		assert wellFormed() : "after readFrom";
+		return changed;
+	}
+	
+	private static long zigzag(long x) {
+		return (x << 1) ^ (x >> 63);
+	}
+	
+	private static long unzigzag(long x) {
+		return (x >>> 1) ^ -(x & 1);
+	}
+	
+	private static int varLength(long x) {
+		int result = 1;
+		while ((x >>>= 7) != 0) ++result;
+		return result;
+	}
+	
+	/**
+	 * Read an unsigned varint directly (without buffering).
+	 * @param in stream to read from, must not be null
+	 * @return number read
+	 * @throws IOException if the stream ends or the number is too long
+	 */
+	private static long readVar(InputStream in) throws IOException {
+		long result = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int x = in.read();
+			if (x < 0) throw new EOFException("hex board ends early");
+			result |= (long)(x & 0x7F) << shift;
+			if (x < 0x80) return result;
+		}
+		throw new IOException("number too long in hex board");
+	}
+	
+	/**
+	 * A buffer in front of an output stream.
+	 */
+	private static class ByteSink {
+		private final OutputStream out;
+		private final byte[] buf = new byte[8192];
+		private int pos;
+		
+		ByteSink(OutputStream out) { this.out = out; }
+		
+		void write(int x) throws IOException {
+			if (pos == buf.length) drain();
+			buf[pos++] = (byte)x;
+		}
+		
+		void write(byte[] bytes) throws IOException {
+			for (byte x : bytes) write(x);
+		}
+		
+		void writeVar(long x) throws IOException {
+			while ((x & ~0x7FL) != 0) {
+				write((int)(x & 0x7F) | 0x80);
+				x >>>= 7;
+			}
+			write((int)x);
+		}
+		
+		private void drain() throws IOException {
+			out.write(buf,0,pos);
+			pos = 0;
+		}
+		
+		void flush() throws IOException {
+			drain();
+			out.flush();
+		}
+	}
+	
+	/**
+	 * A buffer in front of an input stream that never reads
+	 * more than a given number of bytes from it.
 	 */
-	private static boolean isInProperOrder(Node r, HexCoordinate lo, HexCoordinate hi) {
-		if (r == null) return true;
-		if (r.loc == null) return report("null location in tree");
-		if (r.terrain == null) return report("null terrain for " + r.loc);
-		if (lo != null && compare(lo,r.loc) >= 0) return report("out of order " + r.loc + " <= " + lo);
-		if (hi != null && compare(hi,r.loc) <= 0) return report("out of order " + r.loc + " >= " + hi);
-		return isInProperOrder(r.left,lo,r.loc) && isInProperOrder(r.right,r.loc,hi);
+	private static class ByteSource {
+		private final InputStream in;
+		private final byte[] buf;
+		private int pos, lim;
+		private long remaining; // bytes not yet read into buf
+		
+		ByteSource(InputStream in, long length) {
+			this.in = in;
+			buf = new byte[(int)Math.min(8192,Math.max(length,1))];
+			remaining = length;
+		}
+		
+		int read() throws IOException {
+			if (pos == lim) {
+				int n = (int)Math.min(buf.length,remaining);
+				if (n == 0) throw new EOFException("hex board longer than its header says");
+				lim = in.readNBytes(buf,0,n);
+				if (lim < n) throw new EOFException("hex board ends early");
+				remaining -= n;
+				pos = 0;
+			}
+			return buf[pos++] & 0xFF;
+		}
+		
+		long readVar() throws IOException {
+			long result = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				int x = read();
+				result |= (long)(x & 0x7F) << shift;
+				if (x < 0x80) return result;
+			}
+			throw new IOException("number too long in hex board");
+		}
+		
+		boolean done() {
+			return pos == lim && remaining == 0;
+		}
+	}
+
+	/// Journal
+	//
+	// When journaling is on, each change at one location is recorded
+	// as the location and a byte holding the terrains before (high nibble)
+	// and after (low nibble), as ordinals plus one, or zero for no tile.
+	// Changes that have been rolled back stay in the journal (after the 
+	// position) until a new change is made, so that they can be redone.
+	
+	private static final Terrain[] TERRAINS = Terrain.values();
+	
+	private static class Journal {
+		HexCoordinate[] locs = new HexCoordinate[16];
+		byte[] changes = new byte[16];
+		int position; // number of changes currently in effect
+		int end; // number of changes recorded, including rolled back ones
+		int[] redoMarks = new int[4]; // positions before each rollback
+		int marks; // number of redo marks
+		boolean replaying; // whether changes are being undone or redone
 	}
 	
 	/**
-	 * Return the count of the nodes in this subtree.
-	 * @param p subtree to count nodes for (may be null)
-	 * @return number of nodes in the subtree.
+	 * Record a change in the journal, if journaling.
+	 * A new change discards any changes that were rolled back.
+	 * @param l location changed, must not be null
+	 * @param from terrain before (null if there was no tile)
+	 * @param to terrain after (null if the tile was removed)
 	 */
-	private static int countNodes(Node p) {
-		if (p == null) return 0;
-		return 1 + countNodes(p.left) + countNodes(p.right);
+	private void record(HexCoordinate l, Terrain from, Terrain to) {
+		Journal j = journal;
+		if (j == null || j.replaying) return;
+		if (j.position == j.locs.length) {
+			j.locs = Arrays.copyOf(j.locs,j.position*2);
+			j.changes = Arrays.copyOf(j.changes,j.position*2);
+		}
+		Arrays.fill(j.locs,j.position,j.end,null);
+		j.locs[j.position] = l;
+		j.changes[j.position++] = (byte)(code(from) << 4 | code(to));
+		j.end = j.position;
+		j.marks = 0;
 	}
 	
-	private boolean wellFormed() {
-		if (!isInProperOrder(root,null,null)) return false;
-		int count = countNodes(root);
-		if (size != count) return report("size " + size + " wrong, should be " + count);
-		return true;
+	private static int code(Terrain t) {
+		return t == null ? 0 : t.ordinal() + 1;
+	}
+	
+	private static Terrain terrainOf(int code) {
+		return code == 0 ? null : TERRAINS[code-1];
 	}
 	
 	/**
-	 * Create an empty hex board.
+	 * Turn the journal of changes on or off.  Turning it on starts
+	 * an empty journal; turning it off forgets all recorded changes.
+	 * While the journal is on, every change to the board is recorded, 
+	 * so that it can be rolled back to any checkpoint.
+	 * Journaling is off by default.
+	 * @param on whether to keep a journal
+	 * @exception UnsupportedOperationException if this board is a snapshot
 	 */
-	public HexBoard() {
-		root = null;
-		size = 0;
-		assert wellFormed() : "in constructor";
+	public void setJournaling(boolean on) {
+		checkMutable();
+		if (!on) journal = null;
+		else if (journal == null) journal = new Journal();
 	}
 	
-	/** Return the terrain at the given coordinate or null
-	 * if nothing at this coordinate.
-	 * @param c hex coordinate to look for (null OK but pointless)
-	 * @return terrain at that coordinate, or null if nothing
+	/**
+	 * Return whether changes to this board are being recorded.
+	 * @return whether journaling is on
 	 */
-	public Terrain terrainAt(HexCoordinate l) {
-		assert wellFormed() : "in terrainAt";
-		for (Node p = root; p != null; ) {
-			int c = compare(l,p.loc);
-			if (c == 0) return p.terrain;
-			if (c < 0) p = p.left;
-			else p = p.right;
-		}
-		return null;
-	}
-
-	@Override // required by Java
-	public Iterator<HexTile> iterator() {
-		assert wellFormed() : "in iterator";
-		return new MyIterator();
+	public boolean isJournaling() {
+		return journal != null;
 	}
-
-	@Override // required by Java
-	public int size() {
-		assert wellFormed() : "in size";
-		return size;
+	
+	/**
+	 * Return a checkpoint for the current state of the board,
+	 * which is the number of changes in effect in the journal.
+	 * A checkpoint remains valid until changes before it are rolled back
+	 * and then new changes are made.
+	 * @return checkpoint to pass to {@link #rollback(int)}
+	 * @exception IllegalStateException if journaling is off
+	 */
+	public int checkpoint() {
+		if (journal == null) throw new IllegalStateException("journaling is off");
+		return journal.position;
 	}
 	
-	@Override // required for efficiency
-	public boolean contains(Object o) {
-		assert wellFormed() : "in contains()";
-		if (o instanceof HexTile) {
-			HexTile h = (HexTile)o;
-			return terrainAt(h.getLocation()) == h.getTerrain();
+	/**
+	 * Undo all changes made since the given checkpoint, in reverse order.
+	 * The time taken is proportional to the number of changes undone
+	 * (times the time for one change), not the size of the board.
+	 * The changes can be made again with {@link #redo()}, until a new 
+	 * change is made.
+	 * @param checkpoint checkpoint from {@link #checkpoint()}
+	 * @return number of changes undone
+	 * @exception IllegalStateException if journaling is off
+	 * @exception IllegalArgumentException if the checkpoint is not
+	 * at or before the current state
+	 */
+	public int rollback(int checkpoint) {
+		assert wellFormed() : "in rollback";
+		Journal j = journal;
+		if (j == null) throw new IllegalStateException("journaling is off");
+		if (checkpoint < 0 || checkpoint > j.position) throw new IllegalArgumentException("not a checkpoint before now: " + checkpoint);
+		int count = j.position - checkpoint;
+		if (count == 0) return 0;
+		if (j.marks == j.redoMarks.length) j.redoMarks = Arrays.copyOf(j.redoMarks,j.marks*2);
+		j.redoMarks[j.marks++] = j.position;
+		j.replaying = true;
+		try {
+			while (j.position > checkpoint) {
+				--j.position;
+				int change = j.changes[j.position];
+				replay(j.locs[j.position],terrainOf(change & 15),terrainOf((change >> 4) & 15));
+			}
+		} finally {
+			j.replaying = false;
 		}
-		return false;
+		assert wellFormed() : "after rollback";
+		return count;
 	}
-
-	@Override // required for correctness
-	public boolean add(HexTile e) {
-		assert wellFormed() : "in add()";
-		Node lag = null;
-		Node p = root;
-		int c = 0;
-		while (p != null) {
-			c = compare(e.getLocation(),p.loc);
-			if (c == 0) break;
-			lag = p;
-			if (c < 0) p = p.left;
-			else p = p.right;
-		}
-		if (p != null) { // found it!
-			if (p.terrain == e.getTerrain()) return false;
-			p.terrain = e.getTerrain();
-			// size doesn't increase...
-		} else {
-			p = new Node(e.getLocation(),e.getTerrain());
-			++size;
-			if (lag == null) root = p;
-			else if (c < 0) lag.left = p;
-			else lag.right = p;
+	
+	/**
+	 * Make again the changes undone by the most recent {@link #rollback(int)}
+	 * that hasn't been redone, as long as no other changes have been made since.
+	 * @return whether anything was redone
+	 * @exception IllegalStateException if journaling is off
+	 */
+	public boolean redo() {
+		assert wellFormed() : "in redo";
+		Journal j = journal;
+		if (j == null) throw new IllegalStateException("journaling is off");
+		if (j.marks == 0) return false;
+		int mark = j.redoMarks[--j.marks];
+		j.replaying = true;
+		try {
+			for (; j.position < mark; ++j.position) {
+				int change = j.changes[j.position];
+				replay(j.locs[j.position],terrainOf((change >> 4) & 15),terrainOf(change & 15));
+			}
+		} finally {
+			j.replaying = false;
 		}
-		++version;
-		assert wellFormed() : "after add()";
+		assert wellFormed() : "after redo";
 		return true;
 	}
+	
+	/**
+	 * Change the terrain at a location (without recording it).
+	 * @param l location to change, must not be null
+	 * @param from terrain there now, or null if none
+	 * @param to terrain to change to, or null to remove the tile
+	 */
+	private void replay(HexCoordinate l, Terrain from, Terrain to) {
+		if (to == null) removeAt(l,from);
+		else add(new HexTile(to,l));
+	}
 
 	@Override // more efficient
 	public void clear() {
+		checkMutable();
 		if (size > 0) {
+			if (journal != null) {
+				for (Node p : nodesOf(this)) {
+					record(p.loc,p.terrain,null);
+				}
+			}
 			root = null;
 			size = 0;
+			maxSize = 0;
 			++version;
 		}
 	}
 	
-	
-	private HexTile predecessorFinder(Node g) {
-		
-		HexTile pred = null;
-		
-		//left subtree, all the way right
-		g= g.left;
-		while(g.right!=null) {
-			g = g.right;
-
-		}
-	pred = new HexTile(g.terrain, g.loc);		
-		
-		return pred;
-
+	@Override // more efficient
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove()";
+		checkMutable();
+		if (!(o instanceof HexTile)) return false;
+		HexTile h = (HexTile)o;
+		boolean result = removeAt(h.getLocation(),h.getTerrain());
+		assert wellFormed() : "after remove()";
+		return result;
 	}
 	
-	
-	private Node removeHelper(Node e, HexTile h) {
-		
-		//recursive
-		
-		//base case
-		if(e==null)return null;
-		
-		//go left or right until we get to h
-		//once we get to h, do what i did in activity
-		if(compare(h.getLocation(), e.loc) >0) {
-			e.right =removeHelper(e.right,  h);
-			
+	/**
+	 * Remove the tile at the given location, if it has the given terrain.
+	 * @param l location of tile to remove, must not be null
+	 * @param t terrain the tile must have
+	 * @return whether a tile was removed
+	 */
+	private boolean removeAt(HexCoordinate l, Terrain t) {
+		Node p = root;
+		int depth = 0;
+		while (p != null) {
+			int c = compare(l,p.loc);
+			if (c == 0) break;
+			if (depth == path.length) path = Arrays.copyOf(path, depth*2);
+			path[depth++] = p;
+			if (c < 0) p = p.left;
+			else p = p.right;
 		}
-		
-		if(compare(h.getLocation(), e.loc)<0) {
-			
-		e.left =removeHelper(e.left, h);
+		if (p == null || p.terrain != t) {
+			Arrays.fill(path,0,depth,null);
+			return false;
 		}
-			
-		if(compare(h.getLocation(),e.loc)==0) {
-			if(e.left==null && e.right==null) {
-				return null;
-				
-			}
-			if(e.left!=null &&e.right==null) {
-				
-			return e.left;
-				
-			}
-			if(e.left==null &&e.right!=null) {
-				return e.right;
+		p = ownPath(depth,p);
+		record(l,t,null);
+		adjustCounts(depth,t,-1);
+		unlink(depth == 0 ? null : path[depth-1],p);
+		Arrays.fill(path,0,depth,null);
+		--size;
+		++version;
+		// scapegoat: rebuild everything once a third of the nodes are gone
+		if (3*size < 2*maxSize) {
+			root = rebuild(root,size);
+			maxSize = size;
+		}
+		return true;
+	}
+	
+	/**
+	 * Remove a node from the tree.  If the node has two children,
+	 * its predecessor's data is moved into it and the predecessor's node
+	 * is removed instead.  Shared nodes on the way to the predecessor are copied.
+	 * The terrain counts of the ancestors of the node must already be updated.
+	 * @param parent parent of the node (owned by this board), 
+	 * or null if the node is the root
+	 * @param p node to remove, owned by this board, must not be null
+	 */
+	private void unlink(Node parent, Node p) {
+		if (p.left != null && p.right != null) {
+			Node lag = p;
+			Node q = p.left;
+			while (q.right != null) {
+				q = own(q);
+				if (lag == p) lag.left = q;
+				else lag.right = q;
+				lag = q;
+				q = q.right;
 			}
-			
-			if(e.left!=null && e.right!=null) {
-				
-				HexTile k = predecessorFinder(e);
-				
-				e.terrain = k.getTerrain();
-				e.loc = k.getLocation();
-				
-				HexTile eH = new HexTile(e.terrain, e.loc);
-				
-				e.left= removeHelper(e.left, eH);
-				
+			// the predecessor moves up out of the subtrees between
+			adjustCount(p,p.terrain,-1);
+			for (Node r = p.left; r != q; r = r.right) {
+				adjustCount(r,q.terrain,-1);
 			}
-			
+			p.loc = q.loc;
+			p.terrain = q.terrain;
+			p.tile = q.tile;
+			parent = lag;
+			p = q;
 		}
-		
-		return e;
-	}
-	@Override
-	public boolean remove(Object o) {
-		
-		if(!(contains(o))) {return false;}
-		
-		//node has the data of hexTile - which are made of terrain and coordinate
-		//cast o to a hextile
-		HexTile h = (HexTile)o;
-		//connect to tree
-		root =removeHelper(root, h);
-		
-		size--;
-		version++;
-		
-		return true;
+		Node child = p.left != null ? p.left : p.right;
+		if (parent == null) root = child;
+		else if (parent.left == p) parent.left = child;
+		else parent.right = child;
 	}
 
 	private class MyIterator implements Iterator<HexTile> {
 		// new data structure for iterator:
-		private Stack<Node> pending = new Stack<>();
+		private NodeStack pending = new NodeStack(depthLimit(maxSize)+2);
 		private HexTile current; // if can be removed
 		private int myVersion = version;
+		// To remove without searching from the root, we also keep
+		private Node lastNode; // node for current (or null)
+		private int lastMark; // where lastNode's right child is in pending
+		private Node lastBefore; // node holding the tile before current
+		private Node before; // node holding the tile before the next one
 		
 
 		
@@ -329,6 +2219,10 @@ public class HexBoard extends AbstractCollection<HexTile> {
 			// 2. If we are stale, don't check anything else, pretend no problems
 			if(myVersion != version) { return true;
 			}
+			// Our own additions: lastNode (if any) must hold current
+			if (lastNode != null && (current == null || lastNode.loc != current.getLocation() || lastNode.terrain != current.getTerrain())) 
+				return report("lastNode doesn't match current");
+			
 			// 3. If current isn't null, there should be a node for it in the tree.
 			if(current !=null) {
 					if(!(contains(current)==true))
@@ -341,7 +2235,8 @@ public class HexBoard extends AbstractCollection<HexTile> {
 			Node prev = null;
 			//iterate through stack
 			//pull out all items(q) from this container(pending)
-			for(Node q: pending ) {
+			for(int i=0; i < pending.size(); ++i) {
+				Node q = pending.get(i);
 				
 				if(fiveHelper(q, prev) ==false)
 					return report("not next greatest ancestor");
@@ -422,6 +2317,20 @@ public class HexBoard extends AbstractCollection<HexTile> {
 			
 		}
 		
+		/**
+		 * Create an iterator over the tiles from one location 
+		 * up to (but not including) another.
+		 * @param from first location to include, must not be null
+		 * @param to location to stop before, or null to go to the end
+		 */
+		private MyIterator(HexCoordinate from, HexCoordinate to) {
+			seek(from);
+			limit = to;
+			assert wellFormed();
+		}
+		
+		private HexCoordinate limit; // where to stop, or null
+		
 		@Override // required by Java
 		public boolean hasNext() {
 			
@@ -431,7 +2340,7 @@ public class HexBoard extends AbstractCollection<HexTile> {
 			
 			
 			//making sure stack is not empty, so a next exists
-			return !(pending.isEmpty()); 
+			return !(pending.isEmpty()) && (limit == null || compare(pending.peek().loc,limit) < 0); 
 			
 		}
 
@@ -448,7 +2357,11 @@ public class HexBoard extends AbstractCollection<HexTile> {
 			
 			Node temp= pending.pop();
 			
-			HexTile tempH = new HexTile(temp.terrain,temp.loc);
+			HexTile tempH = tileOf(temp);
+			lastNode = temp;
+			lastMark = pending.size();
+			lastBefore = before;
+			before = temp;
 
 			temp = temp.right;
 			
@@ -476,17 +2389,258 @@ public class HexBoard extends AbstractCollection<HexTile> {
 		 
 			//cant remove a null
 			if(current==null)throw new IllegalStateException();
+			checkMutable();
+			
+			Node n = lastNode;
+			// find the predecessor in case we need it
+			Node lag = n, q = n.left;
+			if (n.right != null && q != null) {
+				while (q.right != null) {
+					lag = q;
+					q = q.right;
+				}
+			}
+			// the node to be changed (and thus all above it) must be ours
+			Node changed = n.left != null || n.right != null ? lag : 
+				!pending.isEmpty() && pending.peek().left == n ? pending.peek() : lastBefore;
+			if (changed != null && !owns(changed)) {
+				// copy the path from the root, and then find our place again
+				HexCoordinate next = pending.isEmpty() ? null : pending.peek().loc;
+				removeAt(current.getLocation(),current.getTerrain());
+				myVersion = version;
+				current = null;
+				lastNode = null;
+				seek(next);
+				assert wellFormed() : "after iterator remove of shared node";
+				return;
+			}
+			record(n.loc,n.terrain,null);
+			for (Node p = root; p != n; p = compare(n.loc,p.loc) < 0 ? p.left : p.right) {
+				adjustCount(p,n.terrain,-1);
+			}
+			before = lastBefore;
+			if (n.left != null && n.right != null) {
+				// move predecessor (lastBefore) here, the stack isn't affected
+				adjustCount(n,n.terrain,-1);
+				for (Node p = n.left; p != q; p = p.right) {
+					adjustCount(p,q.terrain,-1);
+				}
+				n.loc = q.loc;
+				n.terrain = q.terrain;
+				n.tile = q.tile;
+				if (lag == n) lag.left = q.left;
+				else lag.right = q.left;
+				before = n;
+			} else if (n.left != null) {
+				// pull the left child up into this node
+				Node c = n.left;
+				copy(c,n);
+				if (before == c) before = n;
+			} else if (n.right != null) {
+				// pull the right child up, which is pending
+				Node c = n.right;
+				assert pending.get(lastMark) == c : "right child not where expected";
+				copy(c,n);
+				pending.set(lastMark,n);
+			} else if (!pending.isEmpty() && pending.peek().left == n) {
+				// a leaf's parent is either the next node...
+				pending.peek().left = null;
+			} else if (lastBefore != null && lastBefore.right == n) {
+				// or the previous node
+				lastBefore.right = null;
+			} else {
+				root = null;
+			}
 			
-			HexBoard.this.remove(current);
-			//current is now null
-			
+			--size;
+			myVersion = ++version;
 			current = null;
-
-			//increment myVersion
-			myVersion++;
+			lastNode = null;
 			
+			if (3*size < 2*maxSize) {
+				HexCoordinate next = pending.isEmpty() ? null : pending.peek().loc;
+				root = rebuild(root,size);
+				maxSize = size;
+				seek(next);
+			}
+			assert wellFormed() : "after iterator remove";
+		}
+		
+		/**
+		 * Move all the contents of one node into another,
+		 * after which the first node is no longer used.
+		 * @param from node to copy from, must not be null
+		 * @param to node to copy to, must not be null
+		 */
+		private void copy(Node from, Node to) {
+			to.loc = from.loc;
+			to.terrain = from.terrain;
+			to.tile = from.tile;
+			to.left = from.left;
+			to.right = from.right;
+			to.counts = from.counts == null ? null : from.counts.clone();
+		}
+		
+		/**
+		 * Reset the stack so that the next node returned is
+		 * the first one at or after the given location, and find the node
+		 * before it.
+		 * @param loc location to start at, or null
+		 * to reset to the end of the iteration
+		 */
+		private void seek(HexCoordinate loc) {
+			pending.clear();
+			before = null;
+			Node p = root;
+			while (p != null) {
+				int c = loc == null ? 1 : compare(loc,p.loc);
+				if (c == 0) break;
+				if (c < 0) {
+					pending.push(p);
+					p = p.left;
+				} else {
+					before = p;
+					p = p.right;
+				}
+			}
+			if (p != null) {
+				pending.push(p);
+				for (p = p.left; p != null; p = p.right) {
+					before = p;
+				}
+			}
+		}
+		
+	}
+
+	/**
+	 * The order of tiles on a board, which is the order of their locations:
+	 * by rows, and then by position within a row.
+	 */
+	private static final Comparator<HexTile> ORDER = (t1,t2) -> compare(t1.getLocation(),t2.getLocation());
+	
+	/**
+	 * {@inheritDoc}
+	 * The spliterator splits the board at its middle tile, found using
+	 * the sizes of the subtrees, so that each part is exactly half of the
+	 * previous one, and the parts can be traversed in parallel.
+	 * It is fail-fast, like the iterator.
+	 */
+	@Override // more efficient
+	public Spliterator<HexTile> spliterator() {
+		assert wellFormed() : "in spliterator";
+		return new MySpliterator(root,null,null,size);
+	}
+	
+	private class MySpliterator implements Spliterator<HexTile> {
+		// the tiles from lo (inclusive) to hi (exclusive) in a subtree
+		private Node sub; // subtree holding all the tiles, may be null
+		private HexCoordinate lo, hi; // bounds, or null if unbounded
+		private long remaining; // number of tiles left
+		private NodeStack pending; // null until traversal starts
+		private final int myVersion = version;
+		
+		MySpliterator(Node r, HexCoordinate lo, HexCoordinate hi, long n) {
+			this.lo = lo;
+			this.hi = hi;
+			sub = top(r);
+			remaining = n;
+		}
+		
+		private boolean inRange(HexCoordinate l) {
+			return (lo == null || compare(lo,l) <= 0) && (hi == null || compare(l,hi) < 0);
 		}
 		
+		/**
+		 * Return the highest node in the subtree within the range.
+		 * @param r subtree to look in, may be null
+		 * @return highest node in range, or null if none
+		 */
+		private Node top(Node r) {
+			while (r != null && !inRange(r.loc)) {
+				if (lo != null && compare(r.loc,lo) < 0) r = r.right;
+				else r = r.left;
+			}
+			return r;
+		}
+		
+		@Override // required by Java
+		public Spliterator<HexTile> trySplit() {
+			if (pending != null || remaining <= 1) return null;
+			// split at the middle tile, which the subtree sizes let us find directly
+			int half = (int)(remaining >>> 1);
+			int first = lo == null ? 0 : sizeBefore(sub,lo);
+			HexCoordinate split = nodeAt(sub,first + half).loc;
+			Spliterator<HexTile> prefix = new MySpliterator(sub,lo,split,half);
+			lo = split;
+			sub = top(sub);
+			remaining -= half;
+			return prefix;
+		}
+		
+		private void start() {
+			pending = new NodeStack(depthLimit(maxSize)+2);
+			for (Node p = sub; p != null; ) {
+				if (lo != null && compare(p.loc,lo) < 0) p = p.right;
+				else {
+					pending.push(p);
+					p = p.left;
+				}
+			}
+		}
+		
+		/**
+		 * Return the next node in range, or null if there are no more.
+		 * @return next node
+		 */
+		private Node nextNode() {
+			if (pending == null) start();
+			if (pending.isEmpty()) return null;
+			Node p = pending.pop();
+			if (hi != null && compare(p.loc,hi) >= 0) {
+				pending.clear();
+				return null;
+			}
+			for (Node q = p.right; q != null; q = q.left) {
+				pending.push(q);
+			}
+			if (remaining > 0) --remaining;
+			return p;
+		}
+		
+		@Override // required by Java
+		public boolean tryAdvance(Consumer<? super HexTile> action) {
+			if (action == null) throw new NullPointerException("action may not be null");
+			if (version != myVersion) throw new ConcurrentModificationException("board changed during traversal");
+			Node p = nextNode();
+			if (p == null) return false;
+			action.accept(tileOf(p));
+			return true;
+		}
+		
+		@Override // more efficient
+		public void forEachRemaining(Consumer<? super HexTile> action) {
+			if (action == null) throw new NullPointerException("action may not be null");
+			for (Node p = nextNode(); p != null; p = nextNode()) {
+				action.accept(tileOf(p));
+			}
+			if (version != myVersion) throw new ConcurrentModificationException("board changed during traversal");
+		}
+		
+		@Override // required by Java
+		public long estimateSize() {
+			return remaining;
+		}
+		
+		@Override // required by Java
+		public int characteristics() {
+			return SIZED | SUBSIZED | ORDERED | SORTED | DISTINCT | NONNULL;
+		}
+		
+		@Override // required for SORTED
+		public Comparator<? super HexTile> getComparator() {
+			return ORDER;
+		}
 	}
 
 	// Do not change anything in this test class:
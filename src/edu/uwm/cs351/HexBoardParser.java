@@ -0,0 +1,240 @@
+package edu.uwm.cs351;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * A parser for hex tiles in the text form produced by {@link HexTile#toString()},
+ * such as <code>FOREST&lt;3,2,1&gt;</code>, separated by white space.
+ * Unlike {@link HexTile#fromString(String)}, the parser works directly
+ * on the characters as they are read, without creating strings or tiles,
+ * and it reports errors with the line and column where they occur.
+ * Each tile read becomes a coordinate and a tree node, which are
+ * what the board keeps.
+ * <p>
+ * Text can come from a reader, a character buffer, or a byte buffer
+ * (in ASCII or UTF-8: non-ASCII characters are never valid).
+ * The nodes are collected and then added to a board all at once,
+ * which takes linear time if they are in order, as when the text
+ * was written from a hex board.
+ */
+public class HexBoardParser {
+
+	private static final Terrain[] TERRAINS = Terrain.values();
+	private static final int MAX_NAME = 32; // longer than any terrain name
+
+	private final Reader reader; // or null
+	private final CharBuffer chars; // or null
+	private final ByteBuffer bytes; // or null
+	private final char[] buf;
+	private int pos, lim;
+	private boolean eof;
+	private int line = 1, column = 1; // of buf[pos]
+	private final char[] name = new char[MAX_NAME];
+
+	private HexBoardParser(Reader r, CharBuffer cb, ByteBuffer bb) {
+		reader = r;
+		chars = cb;
+		bytes = bb;
+		buf = new char[8192];
+	}
+
+	/**
+	 * Parse all the tiles from a reader and add them to a board.
+	 * The reader is read to the end but not closed.
+	 * @param in where to read the tiles from, must not be null
+	 * @param board where to put the tiles, must not be null
+	 * @return number of tiles read
+	 * @throws IOException if the reader fails
+	 * @throws FormatException if the text is not tiles separated by white space.
+	 * In this case, the board is not changed.
+	 */
+	public static int parseInto(Reader in, HexBoard board) throws IOException {
+		if (in == null) throw new NullPointerException("reader may not be null");
+		try {
+			return new HexBoardParser(in,null,null).parseInto(board);
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	/**
+	 * Parse all the tiles remaining in a character buffer and add them
+	 * to a board.  The buffer's position is moved to its limit.
+	 * @param in where to read the tiles from, must not be null
+	 * @param board where to put the tiles, must not be null
+	 * @return number of tiles read
+	 * @throws FormatException if the text is not tiles separated by white space.
+	 * In this case, the board is not changed.
+	 */
+	public static int parseInto(CharBuffer in, HexBoard board) {
+		if (in == null) throw new NullPointerException("buffer may not be null");
+		return new HexBoardParser(null,in,null).parseInto(board);
+	}
+
+	/**
+	 * Parse all the tiles remaining in a byte buffer (holding ASCII text)
+	 * and add them to a board.  The buffer's position is moved to its limit.
+	 * @param in where to read the tiles from, must not be null
+	 * @param board where to put the tiles, must not be null
+	 * @return number of tiles read
+	 * @throws FormatException if the text is not tiles separated by white space.
+	 * In this case, the board is not changed.
+	 */
+	public static int parseInto(ByteBuffer in, HexBoard board) {
+		if (in == null) throw new NullPointerException("buffer may not be null");
+		return new HexBoardParser(null,null,in).parseInto(board);
+	}
+
+	/**
+	 * Parse all the tiles from a reader into a new board.
+	 * @param in where to read the tiles from, must not be null
+	 * @return new board with the tiles
+	 * @throws IOException if the reader fails
+	 * @throws FormatException if the text is not tiles separated by white space.
+	 */
+	public static HexBoard parse(Reader in) throws IOException {
+		HexBoard result = new HexBoard();
+		parseInto(in,result);
+		return result;
+	}
+
+	/**
+	 * Get more characters into the buffer, if there are any.
+	 * @return whether there are characters to read
+	 */
+	private boolean fill() {
+		if (pos < lim) return true;
+		if (eof) return false;
+		pos = 0;
+		lim = 0;
+		if (reader != null) {
+			try {
+				int n = reader.read(buf);
+				if (n > 0) lim = n;
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		} else if (chars != null) {
+			lim = Math.min(buf.length,chars.remaining());
+			chars.get(buf,0,lim);
+		} else {
+			lim = Math.min(buf.length,bytes.remaining());
+			for (int i=0; i < lim; ++i) {
+				buf[i] = (char)(bytes.get() & 0xFF);
+			}
+		}
+		if (lim == 0) eof = true;
+		return lim > 0;
+	}
+
+	/**
+	 * Return the next character without consuming it.
+	 * @return next character, or -1 at the end
+	 */
+	private int peek() {
+		return fill() ? buf[pos] : -1;
+	}
+
+	/**
+	 * Consume the next character.
+	 * @return character consumed, or -1 at the end
+	 */
+	private int next() {
+		if (!fill()) return -1;
+		char ch = buf[pos++];
+		if (ch == '\n') {
+			++line;
+			column = 1;
+		} else ++column;
+		return ch;
+	}
+
+	private FormatException error(String message) {
+		return new FormatException("line " + line + ", column " + column + ": " + message);
+	}
+
+	private String describe(int ch) {
+		if (ch < 0) return "end of input";
+		return "'" + (char)ch + "'";
+	}
+
+	private void expect(char ch) {
+		int x = peek();
+		if (x != ch) throw error("expected '" + ch + "' but found " + describe(x));
+		next();
+	}
+
+	private int parseInt() {
+		boolean negative = false;
+		if (peek() == '-') {
+			negative = true;
+			next();
+		}
+		int x = peek();
+		if (x < '0' || x > '9') throw error("expected a number but found " + describe(x));
+		long result = 0;
+		while ((x = peek()) >= '0' && x <= '9') {
+			result = result * 10 + (x - '0');
+			if (result > (long)Integer.MAX_VALUE + 1) throw error("number too large");
+			next();
+		}
+		if (negative) result = -result;
+		if (result > Integer.MAX_VALUE) throw error("number too large");
+		return (int)result;
+	}
+
+	private Terrain parseTerrain() {
+		int n = 0;
+		int x;
+		while ((x = peek()) >= 'A' && x <= 'Z' || x == '_') {
+			if (n == MAX_NAME) throw error("terrain name too long");
+			name[n++] = (char)x;
+			next();
+		}
+		if (n == 0) throw error("expected a terrain but found " + describe(x));
+		for (Terrain t : TERRAINS) {
+			String s = t.name();
+			if (s.length() != n) continue;
+			int i = 0;
+			while (i < n && s.charAt(i) == name[i]) ++i;
+			if (i == n) return t;
+		}
+		column -= n; // report the start of the name
+		throw error("unknown terrain " + String.valueOf(name,0,n));
+	}
+
+	private int parseInto(HexBoard board) {
+		if (board == null) throw new NullPointerException("board may not be null");
+		HexBoard.Loader loader = board.loader();
+		int count = 0;
+		for (;;) {
+			int x;
+			while ((x = peek()) >= 0 && Character.isWhitespace(x)) next();
+			if (x < 0) break;
+			Terrain t = parseTerrain();
+			int startLine = line, startColumn = column;
+			expect('<');
+			int a = parseInt();
+			expect(',');
+			int b = parseInt();
+			expect(',');
+			int c = parseInt();
+			expect('>');
+			if (a - b != c) {
+				line = startLine;
+				column = startColumn;
+				throw error("inconsistent coordinate: " + c + " != " + a + " - " + b);
+			}
+			x = peek();
+			if (x >= 0 && !Character.isWhitespace(x)) throw error("expected white space but found " + describe(x));
+			loader.add(a,b,t);
+			++count;
+		}
+		loader.finish();
+		return count;
+	}
+}
@@ -0,0 +1,69 @@
+package edu.uwm.cs351;
+
+/**
+ * Packing of hex coordinates into single long values.
+ * Keys compare (as signed longs) in the same order as hex boards
+ * keep their tiles: by the second coordinate, and then by the first.
+ */
+final class HexKeys {
+	private HexKeys() {} // no instances
+	
+	private static final int FLIP = Integer.MIN_VALUE;
+	
+	/**
+	 * Pack the coordinate &lt;a,b,a-b&gt; into a key.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return key for the coordinate
+	 */
+	static long key(int a, int b) {
+		return ((long)b << 32) | ((a ^ FLIP) & 0xFFFFFFFFL);
+	}
+	
+	/**
+	 * Pack a hex coordinate into a key.
+	 * @param h coordinate, must not be null
+	 * @return key for the coordinate
+	 */
+	static long key(HexCoordinate h) {
+		return key(h.a(),h.b());
+	}
+	
+	/**
+	 * Return the first coordinate of a key.
+	 * @param key packed coordinate
+	 * @return first coordinate
+	 */
+	static int a(long key) {
+		return (int)key ^ FLIP;
+	}
+	
+	/**
+	 * Return the second coordinate of a key.
+	 * @param key packed coordinate
+	 * @return second coordinate
+	 */
+	static int b(long key) {
+		return (int)(key >> 32);
+	}
+	
+	/**
+	 * Unpack a key into a hex coordinate.
+	 * @param key packed coordinate
+	 * @return new hex coordinate for the key
+	 */
+	static HexCoordinate coordinate(long key) {
+		return new HexCoordinate(a(key),b(key));
+	}
+	
+	/**
+	 * Scramble the bits of a key, so that nearby coordinates
+	 * have unrelated hash codes.
+	 * @param key packed coordinate
+	 * @return well-mixed hash of the key
+	 */
+	static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key ^ (key >>> 32));
+	}
+}
@@ -0,0 +1,480 @@
+package edu.uwm.cs351;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An implementation of the HexBoard ADT for a bounded region
+ * stored in a memory-mapped file rather than on the heap.
+ * Like {@link DenseHexBoard}, every tile must be within the bounds
+ * given when the board is created, and tiles are kept in order
+ * (by rows, then by position within a row).
+ * <p>
+ * The file has a small header followed by one byte for every cell
+ * of the region, row by row: zero for no tile, or the terrain's ordinal
+ * plus one.  Changes are written straight into the mapped file,
+ * and opening an existing file only reads the header: the operating system
+ * pages in the rest of the file as it is used.
+ * Iterating over a board looks at every cell of the region, however
+ * few tiles there are.
+ * <p>
+ * A file may also be opened {@link #openReadOnly(Path) read-only},
+ * in which case every method that would change the board throws
+ * {@link UnsupportedOperationException}.
+ * <p>
+ * Boards should be closed when no longer needed; after closing,
+ * the board must not be used.
+ */
+public class MappedHexBoard extends AbstractCollection<HexTile> implements Closeable {
+
+	private static final int MAGIC = 0x48455842; // "HEXB"
+	private static final int FORMAT = 1;
+	// header: magic, format, minA, minB, columns, rows (ints), size (long)
+	private static final int SIZE_OFFSET = 24;
+	private static final int HEADER = 32;
+	private static final int SEGMENT_SHIFT = 30; // a gigabyte of cells per mapping
+	private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+	private static final byte EMPTY = 0;
+	private static final Terrain[] TERRAINS = Terrain.values();
+
+	private final FileChannel channel;
+	private final boolean readOnly;
+	private final MappedByteBuffer header;
+	private MappedByteBuffer[] segments; // replaced when the board is cleared
+	private final int minA, minB;
+	private final int columns, rows;
+	private long size;
+	private int version;
+
+	private static boolean doReport = true;
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		else System.out.println("Detected invariant error: " + s);
+		return false;
+	}
+
+	/**
+	 * Check the invariant.  Counting the tiles would mean reading the
+	 * whole file, so only the header is checked.
+	 * @return whether the invariant holds
+	 */
+	private boolean wellFormed() {
+		if (header.getInt(0) != MAGIC) return report("magic number lost");
+		if (header.getLong(SIZE_OFFSET) != size) return report("size " + size + " not the same as in file " + header.getLong(SIZE_OFFSET));
+		if (size < 0 || size > (long)columns*rows) return report("size " + size + " impossible");
+		long cells = (long)columns * rows;
+		if (segments.length != (int)((cells + SEGMENT_MASK) >> SEGMENT_SHIFT)) return report("wrong number of segments " + segments.length);
+		return true;
+	}
+
+	private MappedHexBoard(FileChannel ch, boolean readOnly, int minA, int minB, int columns, int rows) throws IOException {
+		channel = ch;
+		this.readOnly = readOnly;
+		this.minA = minA;
+		this.minB = minB;
+		this.columns = columns;
+		this.rows = rows;
+		header = ch.map(mode(),0,HEADER);
+		segments = mapCells();
+	}
+	
+	private FileChannel.MapMode mode() {
+		return readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE;
+	}
+	
+	/**
+	 * Map the cells of the file, extending it if necessary.
+	 * @return mappings of all the cells, a gigabyte each
+	 * @throws IOException if the file cannot be mapped
+	 */
+	private MappedByteBuffer[] mapCells() throws IOException {
+		long cells = (long)columns * rows;
+		MappedByteBuffer[] result = new MappedByteBuffer[(int)((cells + SEGMENT_MASK) >> SEGMENT_SHIFT)];
+		for (int i=0; i < result.length; ++i) {
+			long start = (long)i << SEGMENT_SHIFT;
+			result[i] = channel.map(mode(),HEADER+start,Math.min(cells-start,1L << SEGMENT_SHIFT));
+		}
+		return result;
+	}
+	
+	/**
+	 * Return what is wrong with the bounds of a region, if anything.
+	 * @return description of the problem, or null if the region is OK
+	 */
+	private static String regionProblem(int minA, int minB, int columns, int rows) {
+		if (columns <= 0 || rows <= 0) return "region must not be empty: " + columns + " x " + rows;
+		if ((long)minA + columns - 1 > Integer.MAX_VALUE || (long)minB + rows - 1 > Integer.MAX_VALUE) {
+			return "region goes past the largest coordinate";
+		}
+		if ((long)columns * rows > (long)Integer.MAX_VALUE << SEGMENT_SHIFT) return "region too large: " + columns + " x " + rows;
+		return null;
+	}
+	
+	private void checkWritable() {
+		if (readOnly) throw new UnsupportedOperationException("board was opened read-only");
+	}
+
+	/**
+	 * Create a new empty board in the given file, which is
+	 * replaced if it already exists.  The file is made large enough
+	 * for the whole region, but on most systems, space is allocated on disk
+	 * only as tiles are added.
+	 * @param file where to store the board, must not be null
+	 * @param minA smallest first coordinate permitted
+	 * @param minB smallest second coordinate permitted
+	 * @param columns number of first coordinates permitted, must be positive
+	 * @param rows number of second coordinates permitted, must be positive
+	 * @return new empty board
+	 * @throws IOException if the file cannot be created or mapped
+	 * @exception IllegalArgumentException if the region is empty or goes
+	 * past the largest coordinate
+	 */
+	public static MappedHexBoard create(Path file, int minA, int minB, int columns, int rows) throws IOException {
+		String problem = regionProblem(minA,minB,columns,rows);
+		if (problem != null) throw new IllegalArgumentException(problem);
+		FileChannel ch = FileChannel.open(file,StandardOpenOption.CREATE,StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ,StandardOpenOption.WRITE,StandardOpenOption.SPARSE);
+		try {
+			MappedHexBoard result = new MappedHexBoard(ch,false,minA,minB,columns,rows);
+			result.header.putInt(0,MAGIC).putInt(4,FORMAT).putInt(8,minA).putInt(12,minB)
+				.putInt(16,columns).putInt(20,rows).putLong(SIZE_OFFSET,0L);
+			assert result.wellFormed() : "after create";
+			return result;
+		} catch (IOException|RuntimeException ex) {
+			ch.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Open a board previously created in the given file.
+	 * @param file file holding the board, must not be null
+	 * @return board using the file
+	 * @throws IOException if the file cannot be opened or mapped,
+	 * or is not a board
+	 */
+	public static MappedHexBoard open(Path file) throws IOException {
+		return open(file,false);
+	}
+
+	/**
+	 * Open a board previously created in the given file, without
+	 * permitting any changes.  The file need only be readable.
+	 * @param file file holding the board, must not be null
+	 * @return board using the file, which cannot be changed
+	 * @throws IOException if the file cannot be opened or mapped,
+	 * or is not a board
+	 */
+	public static MappedHexBoard openReadOnly(Path file) throws IOException {
+		return open(file,true);
+	}
+
+	private static MappedHexBoard open(Path file, boolean readOnly) throws IOException {
+		FileChannel ch = readOnly ? FileChannel.open(file,StandardOpenOption.READ) :
+			FileChannel.open(file,StandardOpenOption.READ,StandardOpenOption.WRITE);
+		try {
+			if (ch.size() < HEADER) throw new IOException("not a hex board file: " + file);
+			MappedByteBuffer h = ch.map(FileChannel.MapMode.READ_ONLY,0,HEADER);
+			if (h.getInt(0) != MAGIC) throw new IOException("not a hex board file: " + file);
+			if (h.getInt(4) != FORMAT) throw new IOException("unknown hex board format " + h.getInt(4) + " in " + file);
+			int minA = h.getInt(8), minB = h.getInt(12), columns = h.getInt(16), rows = h.getInt(20);
+			String problem = regionProblem(minA,minB,columns,rows);
+			if (problem != null) throw new IOException("hex board file corrupt: " + problem + " in " + file);
+			if (ch.size() < HEADER + (long)columns*rows) {
+				throw new IOException("hex board file truncated or corrupt: " + file);
+			}
+			MappedHexBoard result = new MappedHexBoard(ch,readOnly,minA,minB,columns,rows);
+			result.size = h.getLong(SIZE_OFFSET);
+			if (result.size < 0 || result.size > (long)columns*rows) throw new IOException("hex board file corrupt: " + file);
+			assert result.wellFormed() : "after open";
+			return result;
+		} catch (IOException|RuntimeException ex) {
+			ch.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Make sure all changes are written to the file.
+	 */
+	public void force() {
+		if (readOnly) return;
+		header.force();
+		for (MappedByteBuffer s : segments) s.force();
+	}
+
+	@Override // required by Closeable
+	public void close() throws IOException {
+		if (channel.isOpen()) {
+			force();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Return the position of a cell in the file (after the header),
+	 * or -1 if the location is outside the region.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return index of cell, or -1
+	 */
+	private long cellOf(int a, int b) {
+		long x = a - (long)minA, y = b - (long)minB;
+		if (x < 0 || x >= columns || y < 0 || y >= rows) return -1;
+		return y * columns + x;
+	}
+
+	private byte get(long cell) {
+		return segments[(int)(cell >> SEGMENT_SHIFT)].get((int)cell & SEGMENT_MASK);
+	}
+
+	private void put(long cell, byte code) {
+		segments[(int)(cell >> SEGMENT_SHIFT)].put((int)cell & SEGMENT_MASK,code);
+	}
+
+	/**
+	 * Return whether the given location is in the region of this board.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return whether a tile may be put at this location
+	 */
+	public boolean inRegion(int a, int b) {
+		return cellOf(a,b) >= 0;
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return terrain at that coordinate, or null if nothing (or outside the region)
+	 */
+	public Terrain terrainAt(int a, int b) {
+		long cell = cellOf(a,b);
+		if (cell < 0) return null;
+		byte code = get(cell);
+		return code == EMPTY ? null : TERRAINS[code-1];
+	}
+
+	/** Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param l hex coordinate to look for (null OK but pointless)
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate l) {
+		assert wellFormed() : "in terrainAt";
+		if (l == null) return null;
+		return terrainAt(l.a(),l.b());
+	}
+
+	/**
+	 * Return the number of tiles, which may be more than
+	 * {@link #size()} can report.
+	 * @return number of tiles on this board
+	 */
+	public long longSize() {
+		assert wellFormed() : "in longSize";
+		return size;
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return (int)Math.min(size,Integer.MAX_VALUE);
+	}
+
+	@Override // more efficient
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	@Override // required for efficiency
+	public boolean contains(Object o) {
+		assert wellFormed() : "in contains()";
+		if (o instanceof HexTile) {
+			HexTile h = (HexTile)o;
+			return terrainAt(h.getLocation()) == h.getTerrain();
+		}
+		return false;
+	}
+
+	private void setSize(long n) {
+		size = n;
+		header.putLong(SIZE_OFFSET,n);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * @exception IllegalArgumentException if the tile is outside the region
+	 */
+	@Override // required for correctness
+	public boolean add(HexTile e) {
+		assert wellFormed() : "in add()";
+		checkWritable();
+		HexCoordinate l = e.getLocation();
+		long cell = cellOf(l.a(),l.b());
+		if (cell < 0) throw new IllegalArgumentException(e + " is outside of region");
+		byte code = (byte)(e.getTerrain().ordinal() + 1);
+		byte old = get(cell);
+		if (old == code) return false;
+		put(cell,code);
+		if (old == EMPTY) setSize(size+1);
+		++version;
+		assert wellFormed() : "after add()";
+		return true;
+	}
+
+	@Override // more efficient
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove()";
+		checkWritable();
+		if (!(o instanceof HexTile)) return false;
+		HexTile h = (HexTile)o;
+		HexCoordinate l = h.getLocation();
+		long cell = cellOf(l.a(),l.b());
+		if (cell < 0 || get(cell) != h.getTerrain().ordinal() + 1) return false;
+		removeCell(cell);
+		assert wellFormed() : "after remove()";
+		return true;
+	}
+
+	private void removeCell(long cell) {
+		put(cell,EMPTY);
+		setSize(size-1);
+		++version;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * The cells are dropped from the file, which is then extended again
+	 * (as holes, on most systems), so this takes constant time and frees
+	 * the disk space used by the tiles.  If the file cannot be shortened 
+	 * while it is mapped, only the cells that hold tiles are cleared.
+	 * @exception UncheckedIOException if the file was shortened but could
+	 * not be extended and mapped again.  The board is empty, but unless
+	 * the file could be extended, it should only be closed.
+	 */
+	@Override // more efficient
+	public void clear() {
+		assert wellFormed() : "in clear()";
+		checkWritable();
+		if (size > 0) {
+			try {
+				channel.truncate(HEADER);
+			} catch (IOException ex) {
+				// the file is unchanged, so the old mappings still work
+				clearTiles();
+				setSize(0);
+				++version;
+				return;
+			}
+			setSize(0);
+			++version;
+			try {
+				channel.write(ByteBuffer.allocate(1),HEADER + (long)columns*rows - 1);
+				segments = mapCells();
+			} catch (IOException ex) {
+				throw new UncheckedIOException("cleared board could not be mapped again",ex);
+			}
+		}
+		assert wellFormed() : "after clear()";
+	}
+	
+	/**
+	 * Empty every cell that holds a tile, without writing the empty cells
+	 * (so that no more disk space is allocated), stopping after the last tile.
+	 */
+	private void clearTiles() {
+		long left = size;
+		for (long cell=0; left > 0; ++cell) {
+			if (get(cell) != EMPTY) {
+				put(cell,EMPTY);
+				--left;
+			}
+		}
+	}
+
+	/**
+	 * Visit every tile in this board, in order.
+	 * The visitor must not modify the board.
+	 * @param v visitor to call for each tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 */
+	public void forEachTile(HexBoard.TileVisitor v) {
+		assert wellFormed() : "in forEachTile";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		int myVersion = version;
+		long cell = 0;
+		for (int y=0; y < rows; ++y) {
+			for (int x=0; x < columns; ++x, ++cell) {
+				byte code = get(cell);
+				if (code == EMPTY) continue;
+				v.visit(minA + x, minB + y, TERRAINS[code-1]);
+				if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+			}
+		}
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private final long cells = (long)columns * rows;
+		private long next = -1; // cell of next tile, or cells if none
+		private long current = -1; // cell of tile that can be removed, or -1
+		private int myVersion = version;
+
+		private MyIterator() {
+			advance();
+		}
+
+		private void advance() {
+			do {
+				++next;
+			} while (next < cells && get(next) == EMPTY);
+		}
+
+		private void checkVersion() {
+			if (myVersion != version) throw new ConcurrentModificationException("iterator version does not match collection version");
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			checkVersion();
+			return next < cells;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("iteration has no more elements");
+			current = next;
+			advance();
+			int a = minA + (int)(current % columns);
+			int b = minB + (int)(current / columns);
+			return new HexTile(TERRAINS[get(current)-1],new HexCoordinate(a,b));
+		}
+
+		@Override // required for functionality
+		public void remove() {
+			checkVersion();
+			checkWritable();
+			if (current < 0) throw new IllegalStateException("nothing to remove");
+			removeCell(current);
+			current = -1;
+			myVersion = version;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A hex board that may be used by several threads at once, for
+ * when nearly all uses only look at the board.
+ * Like {@link HexBoard}, this is a collection of hex tiles except that
+ * there can never be two tiles at the same location, and the tiles are
+ * kept in the same order (by rows, then by position within a row).
+ * <p>
+ * Changes are made one at a time (with a lock) to a hex board that only
+ * the writer uses, after which an immutable {@link HexBoard#snapshot() snapshot}
+ * of it is published.  Readers only look at the latest snapshot, so they
+ * never lock, block or retry, and never see a change half done.
+ * Taking a snapshot takes constant time, and after it each change copies
+ * the path to the node it changes, so a change takes logarithmic time
+ * as usual.
+ * Iterators go over the snapshot that was current when they were created:
+ * they never throw {@link java.util.ConcurrentModificationException},
+ * and don't see later changes (including removals through the iterator).
+ */
+public class ReadMostlyHexBoard extends AbstractCollection<HexTile> {
+
+	private final HexBoard board; // only used while holding the lock
+	private volatile HexBoard current; // snapshot of board
+	private final Object lock = new Object();
+
+	/**
+	 * Create an empty hex board.
+	 */
+	public ReadMostlyHexBoard() {
+		board = new HexBoard();
+		current = board.snapshot();
+	}
+
+	/**
+	 * Create a hex board with the given tiles.
+	 * @param tiles collection of tiles, must not be null or include null
+	 * @see HexBoard#HexBoard(Collection)
+	 */
+	public ReadMostlyHexBoard(Collection<? extends HexTile> tiles) {
+		board = new HexBoard(tiles);
+		current = board.snapshot();
+	}
+
+	/**
+	 * Return an immutable board with the current tiles.
+	 * This takes constant time.
+	 * @return snapshot of this board
+	 */
+	public HexBoard snapshot() {
+		return current;
+	}
+
+	/** Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.  This never waits for a lock.
+	 * @param l hex coordinate to look for, must not be null
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate l) {
+		return current.terrainAt(l);
+	}
+
+	/**
+	 * Visit every tile in the current snapshot, in order.
+	 * The visitor may change this board, but it won't see the changes.
+	 * @param v visitor to call for each tile, must not be null
+	 */
+	public void forEachTile(HexBoard.TileVisitor v) {
+		current.forEachTile(v);
+	}
+
+	@Override // required by Java
+	public int size() {
+		return current.size();
+	}
+
+	@Override // more efficient
+	public boolean isEmpty() {
+		return current.isEmpty();
+	}
+
+	@Override // required for efficiency
+	public boolean contains(Object o) {
+		return current.contains(o);
+	}
+
+	@Override // required for correctness
+	public boolean add(HexTile e) {
+		synchronized (lock) {
+			return publish(board.add(e));
+		}
+	}
+
+	@Override // more efficient
+	public boolean remove(Object o) {
+		synchronized (lock) {
+			return publish(board.remove(o));
+		}
+	}
+
+	@Override // more efficient: only one snapshot
+	public boolean addAll(Collection<? extends HexTile> c) {
+		synchronized (lock) {
+			return publish(board.addAll(c instanceof ReadMostlyHexBoard ? ((ReadMostlyHexBoard)c).snapshot() : c));
+		}
+	}
+
+	@Override // more efficient: only one snapshot
+	public boolean removeAll(Collection<?> c) {
+		synchronized (lock) {
+			return publish(board.removeAll(c instanceof ReadMostlyHexBoard ? ((ReadMostlyHexBoard)c).snapshot() : c));
+		}
+	}
+
+	@Override // more efficient: only one snapshot
+	public boolean retainAll(Collection<?> c) {
+		synchronized (lock) {
+			return publish(board.retainAll(c instanceof ReadMostlyHexBoard ? ((ReadMostlyHexBoard)c).snapshot() : c));
+		}
+	}
+
+	@Override // more efficient
+	public void clear() {
+		synchronized (lock) {
+			boolean changed = !board.isEmpty();
+			board.clear();
+			publish(changed);
+		}
+	}
+
+	/**
+	 * Make the changes to the board visible to readers, if there were any.
+	 * Must be called while holding the lock.
+	 * @param changed whether the board changed
+	 * @return changed
+	 */
+	private boolean publish(boolean changed) {
+		if (changed) current = board.snapshot();
+		return changed;
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		return new MyIterator(current.iterator());
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private final Iterator<HexTile> tiles; // over a snapshot
+		private HexTile last; // tile that can be removed, or null
+
+		MyIterator(Iterator<HexTile> it) {
+			tiles = it;
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			return tiles.hasNext();
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			last = tiles.next();
+			return last;
+		}
+
+		@Override // required for functionality
+		public void remove() {
+			if (last == null) throw new IllegalStateException("nothing to remove");
+			ReadMostlyHexBoard.this.remove(last);
+			last = null;
+		}
+	}
+}
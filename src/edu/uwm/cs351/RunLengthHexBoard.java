@@ -0,0 +1,361 @@
+package edu.uwm.cs351;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * An implementation of the HexBoard ADT that stores runs of tiles.
+ * Like {@link HexBoard}, this is a collection of hex tiles except that
+ * there can never be two tiles at the same location, and the tiles are
+ * kept in the same order (by rows, then by position within a row).
+ * <p>
+ * A run is a sequence of tiles with the same terrain next to each other
+ * in the same row.  Each run is stored once, keyed by the packed location
+ * of its first tile, so a map with large areas of one terrain takes
+ * space in proportion to the number of runs rather than the number of tiles.
+ * Runs are always as long as possible: adding a tile joins it to runs on
+ * either side, and adding or removing a tile in the middle of a run splits it.
+ * Looking up, adding and removing a tile take logarithmic time in the
+ * number of runs.
+ */
+public class RunLengthHexBoard extends AbstractCollection<HexTile> {
+
+	private static class Run {
+		int length;
+		final Terrain terrain;
+		Run(int n, Terrain t) {
+			length = n;
+			terrain = t;
+		}
+	}
+
+	private final TreeMap<Long,Run> runs = new TreeMap<>();
+	private long size;
+	private int version;
+
+	private static boolean doReport = true;
+	private static boolean report(String s) {
+		if (doReport) System.err.println("Invariant error: " + s);
+		else System.out.println("Detected invariant error: " + s);
+		return false;
+	}
+
+	private boolean wellFormed() {
+		long total = 0;
+		long prevKey = 0;
+		Run prev = null;
+		for (Map.Entry<Long,Run> e : runs.entrySet()) {
+			long key = e.getKey();
+			Run r = e.getValue();
+			if (r == null) return report("null run at " + HexKeys.coordinate(key));
+			if (r.terrain == null) return report("run with null terrain at " + HexKeys.coordinate(key));
+			if (r.length <= 0) return report("run at " + HexKeys.coordinate(key) + " has bad length " + r.length);
+			if ((long)HexKeys.a(key) + r.length - 1 > Integer.MAX_VALUE) return report("run at " + HexKeys.coordinate(key) + " goes past end of row");
+			if (prev != null && HexKeys.b(prevKey) == HexKeys.b(key)) {
+				long gap = (long)HexKeys.a(key) - HexKeys.a(prevKey) - prev.length;
+				if (gap < 0) return report("run at " + HexKeys.coordinate(key) + " overlaps previous run");
+				if (gap == 0 && prev.terrain == r.terrain) return report("run at " + HexKeys.coordinate(key) + " should be joined to previous run");
+			}
+			total += r.length;
+			prevKey = key;
+			prev = r;
+		}
+		if (total != size) return report("size " + size + " wrong, should be " + total);
+		return true;
+	}
+
+	/**
+	 * Create an empty hex board.
+	 */
+	public RunLengthHexBoard() {
+		assert wellFormed() : "in constructor";
+	}
+
+	/**
+	 * Return the entry for the run that includes the given location.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return entry for the run with this location, or null if no tile there
+	 */
+	private Map.Entry<Long,Run> runAt(int a, int b) {
+		Map.Entry<Long,Run> e = runs.floorEntry(HexKeys.key(a,b));
+		if (e == null) return null;
+		long key = e.getKey();
+		if (HexKeys.b(key) != b || (long)a - HexKeys.a(key) >= e.getValue().length) return null;
+		return e;
+	}
+
+	/**
+	 * Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(int a, int b) {
+		Map.Entry<Long,Run> e = runAt(a,b);
+		return e == null ? null : e.getValue().terrain;
+	}
+
+	/** Return the terrain at the given coordinate or null
+	 * if nothing at this coordinate.
+	 * @param l hex coordinate to look for (null OK but pointless)
+	 * @return terrain at that coordinate, or null if nothing
+	 */
+	public Terrain terrainAt(HexCoordinate l) {
+		assert wellFormed() : "in terrainAt";
+		if (l == null) return null;
+		return terrainAt(l.a(),l.b());
+	}
+
+	/**
+	 * Return the number of tiles, which may be more than
+	 * {@link #size()} can report.
+	 * @return number of tiles on this board
+	 */
+	public long longSize() {
+		assert wellFormed() : "in longSize";
+		return size;
+	}
+
+	/**
+	 * Return the number of runs used to store the tiles.
+	 * @return number of runs
+	 */
+	public int runCount() {
+		assert wellFormed() : "in runCount";
+		return runs.size();
+	}
+
+	@Override // required by Java
+	public int size() {
+		assert wellFormed() : "in size";
+		return (int)Math.min(size,Integer.MAX_VALUE);
+	}
+
+	@Override // more efficient
+	public boolean isEmpty() {
+		assert wellFormed() : "in isEmpty";
+		return size == 0;
+	}
+
+	@Override // required for efficiency
+	public boolean contains(Object o) {
+		assert wellFormed() : "in contains()";
+		if (o instanceof HexTile) {
+			HexTile h = (HexTile)o;
+			return terrainAt(h.getLocation()) == h.getTerrain();
+		}
+		return false;
+	}
+
+	/**
+	 * Make sure no run starts before the given location and includes it,
+	 * by splitting such a run in two.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 */
+	private void splitAt(int a, int b) {
+		Map.Entry<Long,Run> e = runAt(a,b);
+		if (e == null) return;
+		int start = HexKeys.a(e.getKey());
+		if (start == a) return;
+		Run r = e.getValue();
+		int before = a - start;
+		runs.put(HexKeys.key(a,b),new Run(r.length - before,r.terrain));
+		r.length = before;
+	}
+
+	/**
+	 * Join the run starting at the given key to runs on either side
+	 * that touch it and have the same terrain.
+	 * @param key location of start of a run
+	 */
+	private void join(long key) {
+		Run r = runs.get(key);
+		int a = HexKeys.a(key), b = HexKeys.b(key);
+		int end = a + r.length - 1;
+		if (end != Integer.MAX_VALUE) {
+			long nextKey = HexKeys.key(end+1,b);
+			Run next = runs.get(nextKey);
+			if (next != null && next.terrain == r.terrain) {
+				runs.remove(nextKey);
+				r.length += next.length;
+			}
+		}
+		Map.Entry<Long,Run> e = runs.lowerEntry(key);
+		if (e != null && HexKeys.b(e.getKey()) == b) {
+			Run prev = e.getValue();
+			if (prev.terrain == r.terrain && (long)HexKeys.a(e.getKey()) + prev.length == a) {
+				runs.remove(key);
+				prev.length += r.length;
+			}
+		}
+	}
+
+	/**
+	 * Put tiles of the given terrain in a run of locations in one row,
+	 * replacing any tiles already there.  This takes logarithmic time
+	 * in the number of runs, plus time for each run that is replaced.
+	 * @param a first coordinate of the first location
+	 * @param b second coordinate of all the locations
+	 * @param length number of locations, must be positive
+	 * @param t terrain for the tiles, must not be null
+	 * @return whether the board changed
+	 * @exception IllegalArgumentException if the length is not positive,
+	 * or the run would go past the largest first coordinate
+	 */
+	public boolean addRun(int a, int b, int length, Terrain t) {
+		assert wellFormed() : "in addRun";
+		if (t == null) throw new NullPointerException("terrain may not be null");
+		if (length <= 0) throw new IllegalArgumentException("length must be positive: " + length);
+		if ((long)a + length - 1 > Integer.MAX_VALUE) throw new IllegalArgumentException("run goes past end of row");
+		int end = a + length - 1;
+		Map.Entry<Long,Run> e = runAt(a,b);
+		if (e != null && e.getValue().terrain == t && (long)HexKeys.a(e.getKey()) + e.getValue().length > end) return false;
+		splitAt(a,b);
+		if (end != Integer.MAX_VALUE) splitAt(end+1,b);
+		Map<Long,Run> covered = runs.subMap(HexKeys.key(a,b),true,HexKeys.key(end,b),true);
+		for (Run r : covered.values()) {
+			size -= r.length;
+		}
+		covered.clear();
+		long key = HexKeys.key(a,b);
+		runs.put(key,new Run(length,t));
+		size += length;
+		join(key);
+		++version;
+		assert wellFormed() : "after addRun";
+		return true;
+	}
+
+	@Override // required for correctness
+	public boolean add(HexTile e) {
+		HexCoordinate l = e.getLocation();
+		return addRun(l.a(),l.b(),1,e.getTerrain());
+	}
+
+	@Override // more efficient
+	public boolean remove(Object o) {
+		assert wellFormed() : "in remove()";
+		if (!(o instanceof HexTile)) return false;
+		HexTile h = (HexTile)o;
+		HexCoordinate l = h.getLocation();
+		if (terrainAt(l) != h.getTerrain()) return false;
+		removeCell(l.a(),l.b());
+		assert wellFormed() : "after remove()";
+		return true;
+	}
+
+	/**
+	 * Remove the tile at a location that has one, splitting its run if necessary.
+	 * @param a first coordinate
+	 * @param b second coordinate
+	 */
+	private void removeCell(int a, int b) {
+		splitAt(a,b);
+		if (a != Integer.MAX_VALUE) splitAt(a+1,b);
+		runs.remove(HexKeys.key(a,b));
+		--size;
+		++version;
+	}
+
+	@Override // more efficient
+	public void clear() {
+		if (size > 0) {
+			runs.clear();
+			size = 0;
+			++version;
+		}
+	}
+
+	/**
+	 * Visit every tile in this board, in order.
+	 * The visitor must not modify the board.
+	 * @param v visitor to call for each tile, must not be null
+	 * @exception ConcurrentModificationException if the visitor modifies the board
+	 */
+	public void forEachTile(HexBoard.TileVisitor v) {
+		assert wellFormed() : "in forEachTile";
+		if (v == null) throw new NullPointerException("visitor may not be null");
+		int myVersion = version;
+		for (Map.Entry<Long,Run> e : runs.entrySet()) {
+			long key = e.getKey();
+			int a = HexKeys.a(key), b = HexKeys.b(key);
+			Run r = e.getValue();
+			for (int i=0; i < r.length; ++i) {
+				v.visit(a+i,b,r.terrain);
+				if (version != myVersion) throw new ConcurrentModificationException("board changed during visit");
+			}
+		}
+	}
+
+	@Override // required by Java
+	public Iterator<HexTile> iterator() {
+		assert wellFormed() : "in iterator";
+		return new MyIterator();
+	}
+
+	private class MyIterator implements Iterator<HexTile> {
+		private long runKey; // start of run with the next tile
+		private Run run; // run with next tile, or null if done
+		private int offset; // position of next tile in run
+		private long lastKey; // location of tile that can be removed
+		private boolean canRemove;
+		private int myVersion = version;
+
+		private MyIterator() {
+			Map.Entry<Long,Run> e = runs.firstEntry();
+			if (e != null) {
+				runKey = e.getKey();
+				run = e.getValue();
+			}
+		}
+
+		private void checkVersion() {
+			if (myVersion != version) throw new ConcurrentModificationException("iterator version does not match collection version");
+		}
+
+		@Override // required by Java
+		public boolean hasNext() {
+			checkVersion();
+			return run != null;
+		}
+
+		@Override // required by Java
+		public HexTile next() {
+			if (!hasNext()) throw new NoSuchElementException("iteration has no more elements");
+			lastKey = runKey + offset;
+			HexTile result = new HexTile(run.terrain,HexKeys.coordinate(lastKey));
+			if (++offset == run.length) {
+				Map.Entry<Long,Run> e = runs.higherEntry(runKey);
+				run = e == null ? null : e.getValue();
+				if (e != null) runKey = e.getKey();
+				offset = 0;
+			}
+			canRemove = true;
+			return result;
+		}
+
+		@Override // required for functionality
+		public void remove() {
+			checkVersion();
+			if (!canRemove) throw new IllegalStateException("nothing to remove");
+			canRemove = false;
+			long nextKey = runKey + offset;
+			removeCell(HexKeys.a(lastKey),HexKeys.b(lastKey));
+			myVersion = version;
+			if (run != null) {
+				// the next tile is still there, but its run may have been split
+				Map.Entry<Long,Run> e = runs.floorEntry(nextKey);
+				runKey = e.getKey();
+				run = e.getValue();
+				offset = (int)(nextKey - runKey);
+			}
+		}
+	}
+}